@@ -402,6 +402,9 @@ public class Argument {
                 Response r = protocol.readResponse();
                 if (r.isContinuation())
                     break;
+                // save responses to other pipelined commands
+                if (protocol.pipelineResponse(r))
+                    continue;
                 if (r.isTagged())
                     throw new LiteralException(r);
                 // XXX - throw away untagged responses;
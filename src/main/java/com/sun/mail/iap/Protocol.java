@@ -26,8 +26,12 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -51,6 +55,12 @@ public class Protocol {
     // package private, to allow testing
     static final AtomicInteger tagNum = new AtomicInteger();
     private static final byte[] CRLF = {(byte) '\r', (byte) '\n'};
+    // literals larger than this are kept out of the response buffer
+    private static final int DEFAULT_LITERAL_THRESHOLD = 256 * 1024;
+    // maximum number of response buffers kept for reuse
+    private static final int BUFFER_POOL_SIZE = 8;
+    // larger response buffers aren't kept for reuse
+    private static final int MAX_POOLED_BUFFER = 64 * 1024;
     private final String tagPrefix;
     private final List<ResponseHandler> handlers
             = new CopyOnWriteArrayList<>();
@@ -69,6 +79,24 @@ public class Protocol {
     private int tagCounter = 0;
     private String localHostName;
     private volatile long timestamp;
+    private int literalThreshold;    // see ResponseInputStream
+    // response buffers available for reuse, see Response.release
+    private final Deque<ByteArray> bufferPool = new ArrayDeque<>();
+    /*
+     * State of the commands being pipelined, if any.  Only
+     * used while holding the lock on this object.
+     */
+    private Map<String, Integer> pipelineTags;    // tag -> command index
+    private List<List<Response>> pipelineResults;
+    private boolean[] pipelineDone;    // completed commands
+    private int pipelineOldest;    // oldest command not completed
+    private int pipelineWriting = -1;    // command being written
+    /*
+     * The command sent by startCommand whose responses haven't been
+     * read yet.  Only used while holding the lock on this object.
+     */
+    private String deferredTag;
+    boolean readingDeferred;    // see Response(Protocol)
 
     /**
      * Constructor. <p>
@@ -100,6 +128,8 @@ public class Protocol {
             socket = SocketFetcher.getSocket(host, port, props, prefix, isSSL);
             quote = PropUtil.getBooleanProperty(props,
                     "mail.debug.quote", false);
+            literalThreshold = PropUtil.getIntProperty(props,
+                    prefix + ".literalthreshold", DEFAULT_LITERAL_THRESHOLD);
 
             initStreams();
 
@@ -136,13 +166,15 @@ public class Protocol {
         this.props = props;
         this.quote = false;
         tagPrefix = computePrefix(props, "mail.imap");
+        literalThreshold = PropUtil.getIntProperty(props,
+                "mail.imap.literalthreshold", DEFAULT_LITERAL_THRESHOLD);
         logger = new MailLogger(this.getClass(), "DEBUG", debug, System.out);
         traceLogger = logger.getSubLogger("protocol", null);
 
         // XXX - inlined initStreams, won't allow later startTLS
         traceInput = new TraceInputStream(in, traceLogger);
         traceInput.setQuote(quote);
-        input = new ResponseInputStream(traceInput);
+        input = new ResponseInputStream(traceInput, literalThreshold);
 
         traceOutput = new TraceOutputStream(out, traceLogger);
         traceOutput.setQuote(quote);
@@ -203,7 +235,7 @@ public class Protocol {
     private void initStreams() throws IOException {
         traceInput = new TraceInputStream(socket.getInputStream(), traceLogger);
         traceInput.setQuote(quote);
-        input = new ResponseInputStream(traceInput);
+        input = new ResponseInputStream(traceInput, literalThreshold);
 
         traceOutput =
                 new TraceOutputStream(socket.getOutputStream(), traceLogger);
@@ -358,10 +390,42 @@ public class Protocol {
         return null;
     }
 
+    /**
+     * Return a buffer from this connection's pool of response buffers,
+     * or a new buffer if the pool is empty.
+     */
+    ByteArray takeResponseBuffer() {
+        synchronized (bufferPool) {
+            ByteArray ba = bufferPool.pollFirst();
+            if (ba != null)
+                return ba;
+        }
+        return new ByteArray(new byte[128], 0, 128);
+    }
+
+    /**
+     * Return a response buffer to this connection's pool,
+     * unless it's too big or the pool is full.
+     */
+    void releaseResponseBuffer(ByteArray ba) {
+        if (ba.getBytes().length > MAX_POOLED_BUFFER)
+            return;
+        synchronized (bufferPool) {
+            if (bufferPool.size() < BUFFER_POOL_SIZE)
+                bufferPool.addFirst(ba);
+        }
+    }
+
     public String writeCommand(String command, Argument args)
             throws IOException, ProtocolException {
         // assert Thread.holdsLock(this);
         // can't assert because it's called from constructor
+
+        // the responses to a deferred command come before ours;
+        // its owner will send it again if it still needs them
+        if (deferredTag != null)
+            readDeferred();
+
         String tag = tagPrefix + Integer.toString(tagCounter++); // unique tag
 
         output.writeBytes(tag + " " + command);
@@ -386,25 +450,72 @@ public class Protocol {
      * @return array of Response objects returned by the server
      */
     public synchronized Response[] command(String command, Argument args) {
+        final List<Response> v = new ArrayList<>();
+        Response last = command(command, args, new ResponseHandler() {
+            @Override
+            public void handleResponse(Response r) {
+                v.add(r);
+            }
+        });
+        v.add(last);    // must be last
+        Response[] responses = new Response[v.size()];
+        v.toArray(responses);
+        return responses;
+    }
+
+    /**
+     * Send a command to the server and pass each response to the
+     * given handler as soon as it has been read, instead of collecting
+     * all the responses before returning.  This allows commands that
+     * produce a large number of responses (e.g., FETCH) to be processed
+     * without holding all the responses in memory at once. <p>
+     *
+     * The handler is called with every response except the last one,
+     * which is returned.  The last response is the corresponding command
+     * completion response or, if the server sent one, a BYE response
+     * (indicating server failure).  I/O errors are converted to a BYE
+     * response, as in {@link #command(String, Argument)}. <p>
+     *
+     * The handler is called while holding the lock on this Protocol
+     * object and must not issue any commands itself.
+     *
+     * @param command the command
+     * @param args    the arguments
+     * @param handler the handler for the intermediate responses
+     * @return the final Response returned by the server
+     * @since JavaMail 1.6.7
+     */
+    public synchronized Response command(String command, Argument args,
+                                         ResponseHandler handler) {
         commandStart(command);
-        List<Response> v = new ArrayList<>();
-        boolean done = false;
+        Response last = null;
         String tag = null;
 
         // write the command
         try {
             tag = writeCommand(command, args);
         } catch (LiteralException lex) {
-            v.add(lex.getResponse());
-            done = true;
+            last = lex.getResponse();
         } catch (Exception ex) {
             // Convert this into a BYE response
-            v.add(Response.byeResponse(ex));
-            done = true;
+            last = Response.byeResponse(ex);
         }
 
+        if (last == null)
+            last = readResponses(tag, handler);
+        timestamp = System.currentTimeMillis();
+        commandEnd();
+        return last;
+    }
+
+    /**
+     * Read the responses to the command with the given tag, passing
+     * all but the last one to the handler, and return the last one.
+     */
+    private Response readResponses(String tag, ResponseHandler handler) {
+        Response last = null;
         Response byeResp = null;
-        while (!done) {
+        while (last == null) {
             Response r = null;
             try {
                 r = readResponse();
@@ -423,20 +534,256 @@ public class Protocol {
                 continue;
             }
 
-            v.add(r);
-
             // If this is a matching command completion response, we are done
             if (r.isTagged() && r.getTag().equals(tag))
-                done = true;
+                last = r;
+            else
+                handler.handleResponse(r);
         }
 
-        if (byeResp != null)
-            v.add(byeResp);    // must be last
-        Response[] responses = new Response[v.size()];
-        v.toArray(responses);
+        if (byeResp != null) {
+            if (last != null)
+                handler.handleResponse(last);
+            last = byeResp;    // must be last
+        }
+        return last;
+    }
+
+    /**
+     * Send several commands to the server without waiting for each
+     * command to complete before sending the next one ("pipelining"),
+     * then collect the responses to all of them.  This saves a round
+     * trip to the server for each command. <p>
+     *
+     * Tagged responses are matched to their commands by tag.  Untagged
+     * responses are assigned to the oldest command that hasn't
+     * completed yet.  The caller must only pipeline commands that can
+     * be executed concurrently, as described in RFC 3501, section 5.5. <p>
+     *
+     * The result contains an array of responses for each command, in
+     * the same form as returned by {@link #command(String, Argument)};
+     * the last response in each array is the command completion response
+     * or, if the connection failed before the command completed, a BYE
+     * response.
+     *
+     * @param commands the commands
+     * @param args     the arguments for each command, or null
+     * @return for each command, the Response objects returned by the server
+     * @since JavaMail 1.6.7
+     */
+    public synchronized Response[][] command(String[] commands,
+                                             Argument[] args) {
+        int n = commands.length;
+        pipelineTags = new HashMap<>();
+        pipelineResults = new ArrayList<>(n);
+        pipelineDone = new boolean[n];
+        pipelineOldest = 0;
+        Response byeResp = null;
+        int written = 0;    // number of commands written
+
+        try {
+            // write all the commands
+            for (int i = 0; i < n; i++) {
+                pipelineResults.add(new ArrayList<Response>());
+                if (byeResp != null)
+                    continue;    // the connection failed, don't bother
+                commandStart(commands[i]);
+                // register the tag first, in case the command needs a literal
+                pipelineTags.put(tagPrefix + Integer.toString(tagCounter), i);
+                pipelineWriting = i;
+                try {
+                    writeCommand(commands[i], args != null ? args[i] : null);
+                } catch (LiteralException lex) {
+                    pipelineResults.get(i).add(lex.getResponse());
+                    complete(i);
+                } catch (Exception ex) {
+                    // Convert this into a BYE response
+                    byeResp = Response.byeResponse(ex);
+                } finally {
+                    pipelineWriting = -1;
+                }
+                if (byeResp == null)
+                    written++;
+            }
+
+            // now collect the responses until all written commands complete
+            while (pipelineOldest < written) {
+                Response r = null;
+                try {
+                    r = readResponse();
+                } catch (IOException ioex) {
+                    if (byeResp == null)    // convert this into a BYE response
+                        byeResp = Response.byeResponse(ioex);
+                    // else, connection closed after BYE was sent
+                    break;
+                } catch (ProtocolException pex) {
+                    logger.log(Level.FINE, "ignoring bad response", pex);
+                    continue; // skip this response
+                }
+
+                if (r.isBYE()) {
+                    byeResp = r;
+                    continue;
+                }
+
+                if (!pipelineResponse(r))
+                    logger.log(Level.FINE, "ignoring unexpected response: {0}",
+                            r);
+            }
+
+            Response[][] responses = new Response[n][];
+            for (int i = 0; i < n; i++) {
+                List<Response> v = pipelineResults.get(i);
+                if (!pipelineDone[i] && byeResp != null)
+                    v.add(byeResp);    // must be last
+                responses[i] = v.toArray(new Response[v.size()]);
+                commandEnd();
+            }
+            timestamp = System.currentTimeMillis();
+            return responses;
+        } finally {
+            pipelineTags = null;
+            pipelineResults = null;
+            pipelineDone = null;
+        }
+    }
+
+    /**
+     * Save a response to a pipelined command, if we're pipelining.
+     * Called while waiting for the continuation request for a literal,
+     * as well as while collecting the responses to the pipelined commands.
+     * The completion response for the command currently being written is
+     * not saved, so that the failure to send a literal can be reported.
+     *
+     * @param r the response
+     * @return true if the response was saved
+     */
+    boolean pipelineResponse(Response r) {
+        // assert Thread.holdsLock(this);
+        if (pipelineTags == null)
+            return false;
+        int i;
+        if (r.isTagged()) {
+            Integer index = pipelineTags.get(r.getTag());
+            if (index == null || index.intValue() == pipelineWriting)
+                return false;
+            i = index.intValue();
+            if (pipelineDone[i])
+                return false;    // should never happen
+        } else {
+            if (pipelineOldest >= pipelineDone.length)
+                return false;    // should never happen
+            i = pipelineOldest;
+        }
+        pipelineResults.get(i).add(r);
+        if (r.isTagged())
+            complete(i);
+        return true;
+    }
+
+    /**
+     * Mark the pipelined command with the given index as completed.
+     */
+    private void complete(int i) {
+        pipelineDone[i] = true;
+        while (pipelineOldest < pipelineDone.length &&
+                pipelineDone[pipelineOldest])
+            pipelineOldest++;
+    }
+
+    /**
+     * Send a command to the server without waiting for the responses.
+     * The responses are collected later by calling
+     * {@link #finishCommand finishCommand} with the returned tag,
+     * allowing the server to process the command while the caller
+     * does something else. <p>
+     *
+     * If another command is sent on this connection before
+     * <code>finishCommand</code> is called, the responses to this
+     * command are read first, passed to the response handlers, and
+     * discarded; <code>finishCommand</code> then returns null and the
+     * caller must send the command again if it still needs the
+     * responses.  Only one such command is outstanding at a time.
+     * Nothing is kept for a command that's never finished, and since
+     * any command sent by the owner of the connection, e.g., to close
+     * the folder, reads the responses, they're never passed to the
+     * response handlers of a later owner. <p>
+     *
+     * The responses are passed to the response handlers as they're
+     * read, so the caller must not do that again.
+     *
+     * @param command the command
+     * @param args    the arguments
+     * @return the tag of the command
+     * @throws IOException       for I/O errors
+     * @throws ProtocolException for protocol failures
+     * @since JavaMail 1.6.7
+     */
+    public synchronized String startCommand(String command, Argument args)
+            throws IOException, ProtocolException {
+        commandStart(command);
+        String tag = writeCommand(command, args);
+        deferredTag = tag;
+        return tag;
+    }
+
+    /**
+     * Collect the responses to a command sent by
+     * {@link #startCommand startCommand}, waiting for the command to
+     * complete if necessary.  The responses are returned in the same
+     * form as {@link #command(String, Argument)}.  Returns null if
+     * the command isn't {@link #isCommandPending pending}, e.g., if its
+     * responses were discarded because another command was sent first.
+     *
+     * @param tag the tag returned by startCommand
+     * @return array of Response objects returned by the server
+     * @since JavaMail 1.6.7
+     */
+    public synchronized Response[] finishCommand(String tag) {
+        if (!tag.equals(deferredTag))
+            return null;
+        return readDeferred();
+    }
+
+    /**
+     * Is the command sent by {@link #startCommand startCommand} with
+     * this tag still waiting for {@link #finishCommand finishCommand}
+     * to collect its responses?
+     *
+     * @param tag the tag returned by startCommand
+     * @return true if finishCommand will return the responses
+     * @since JavaMail 1.6.7
+     */
+    public synchronized boolean isCommandPending(String tag) {
+        return tag.equals(deferredTag);
+    }
+
+    /**
+     * Read the responses to the deferred command, pass them to the
+     * response handlers, and return them.
+     */
+    private Response[] readDeferred() {
+        String tag = deferredTag;
+        deferredTag = null;
+        final List<Response> v = new ArrayList<>();
+        Response last;
+        readingDeferred = true;
+        try {
+            last = readResponses(tag, new ResponseHandler() {
+                @Override
+                public void handleResponse(Response r) {
+                    v.add(r);
+                }
+            });
+        } finally {
+            readingDeferred = false;
+        }
         timestamp = System.currentTimeMillis();
         commandEnd();
-        return responses;
+        v.add(last);    // must be last
+        Response[] r = v.toArray(new Response[v.size()]);
+        notifyResponseHandlers(r);
+        return r;
     }
 
     /**
@@ -517,7 +864,7 @@ public class Protocol {
         traceInput = new TraceInputStream(new InflaterInputStream(
                 socket.getInputStream(), inf), traceLogger);
         traceInput.setQuote(quote);
-        input = new ResponseInputStream(traceInput);
+        input = new ResponseInputStream(traceInput, literalThreshold);
 
         // configure the Deflater
         int level = PropUtil.getIntProperty(props, prefix + ".compress.level",
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class represents a response obtained from the input stream
@@ -49,6 +50,9 @@ public class Response {
     // The sixth bit indicates whether a BYE response is synthetic or real
     public final static int SYNTHETIC = 0x20;
     private static final int increment = 100;
+    private static final byte[] EMPTY = new byte[0];
+    // how much of a released response toString returns
+    private static final int RELEASED_MAX = 128;
     /**
      * An ATOM is any CHAR delimited by:
      * SPACE | CTL | '(' | ')' | '{' | '%' | '*' | '"' | '\' | ']'
@@ -70,6 +74,13 @@ public class Response {
     /** @since JavaMail 1.5.4 */
     protected Exception ex;
     protected boolean utf8;
+    // large literals that aren't in the buffer, by position in the buffer
+    private Map<Integer, ByteArray> literals;
+    // the pooled buffer holding this response and the Protocol it belongs to
+    private ByteArray pooled;
+    private Protocol pool;
+    // what toString returns once the buffer has been released
+    private String released;
 
     public Response(String s) {
         this(s, true);
@@ -101,17 +112,27 @@ public class Response {
      */
     public Response(Protocol p) throws IOException, ProtocolException {
         // read one response into 'buffer'
-        ByteArray ba = p.getResponseBuffer();
-        ByteArray response = p.getInputStream().readResponse(ba);
+        // a buffer provided for another command's response can't be used
+        ByteArray ba = p.readingDeferred ? null : p.getResponseBuffer();
+        if (ba == null) {
+            // use a buffer from the connection's pool
+            ba = p.takeResponseBuffer();
+            pooled = ba;
+            pool = p;
+        }
+        ResponseInputStream in = p.getInputStream();
+        ByteArray response = in.readResponse(ba);
         buffer = response.getBytes();
         size = response.getCount() - 2; // Skip the terminating CRLF
+        literals = in.getLiterals();
         utf8 = p.supportsUtf8();
 
         parse();
     }
 
     /**
-     * Copy constructor.
+     * Copy constructor.  The responsibility for releasing the buffer
+     * holding the response moves to the new Response object.
      *
      * @param r the Response to copy
      */
@@ -123,7 +144,13 @@ public class Response {
         type = r.type;
         tag = r.tag;
         ex = r.ex;
+        released = r.released;
         utf8 = r.utf8;
+        literals = r.literals;
+        pooled = r.pooled;
+        pool = r.pool;
+        r.pooled = null;
+        r.pool = null;
     }
 
     /**
@@ -171,20 +198,15 @@ public class Response {
                 tag = "";    // avoid possible NPE
         }
 
-        int mark = index; // mark
-        String s = readAtom();    // updates index
-        if (s == null)
-            s = "";        // avoid possible NPE
-        if (s.equalsIgnoreCase("OK"))
+        // match the status without creating a String for it
+        if (matchAtom("OK"))
             type |= OK;
-        else if (s.equalsIgnoreCase("NO"))
+        else if (matchAtom("NO"))
             type |= NO;
-        else if (s.equalsIgnoreCase("BAD"))
+        else if (matchAtom("BAD"))
             type |= BAD;
-        else if (s.equalsIgnoreCase("BYE"))
+        else if (matchAtom("BYE"))
             type |= BYE;
-        else
-            index = mark; // reset
 
         pindex = index;
         return;
@@ -253,6 +275,63 @@ public class Response {
         return readDelimString(ATOM_CHAR_DELIM);
     }
 
+    /**
+     * Skip past any spaces and return the index just beyond the ATOM
+     * starting at that position.  The internal index is left at the
+     * start of the ATOM, so that the caller can examine it in place.
+     *
+     * @return the index of the end of the ATOM
+     * @since JavaMail 1.6.7
+     */
+    protected int atomEnd() {
+        skipSpaces();
+        return scan(index, ATOM_CHAR_DELIM);
+    }
+
+    /**
+     * If the ATOM starting at the current position is the given
+     * keyword, ignoring case, skip past it and return true.
+     * Otherwise, leave the internal index unchanged and return false.
+     * No String is created for the ATOM.
+     *
+     * @param keyword the keyword, in uppercase
+     * @return true if the ATOM matches the keyword
+     * @since JavaMail 1.6.7
+     */
+    protected boolean matchAtom(String keyword) {
+        int mark = index;
+        int end = atomEnd();
+        int len = keyword.length();
+        if (end - index == len) {
+            int i;
+            for (i = 0; i < len; i++) {
+                int b = buffer[index + i];
+                if (b >= 'a' && b <= 'z')
+                    b -= 'a' - 'A';
+                if (b != keyword.charAt(i))
+                    break;
+            }
+            if (i == len) {
+                index = end;
+                return true;
+            }
+        }
+        index = mark;
+        return false;
+    }
+
+    /**
+     * Return the index of the first control character or character
+     * in delim, starting at the given index.
+     */
+    private int scan(int i, String delim) {
+        int b;
+        while (i < size && ((b = (((int) buffer[i]) & 0xff)) >= ' ') &&
+                delim.indexOf((char) b) < 0 && b != 0x7f)
+            i++;
+        return i;
+    }
+
     /**
      * Extract a string stopping at control characters or any
      * character in delim.
@@ -263,11 +342,8 @@ public class Response {
         if (index >= size) // already at end of response
             return null;
 
-        int b;
         int start = index;
-        while (index < size && ((b = (((int) buffer[index]) & 0xff)) >= ' ') &&
-                delim.indexOf((char) b) < 0 && b != 0x7f)
-            index++;
+        index = scan(index, delim);
 
         return toString(buffer, start, index);
     }
@@ -488,6 +564,18 @@ public class Response {
             }
 
             start = index + 3; // skip "}\r\n"
+
+            // large literals are kept in a separate buffer
+            ByteArray lit = literals != null ?
+                    literals.get(Integer.valueOf(start)) : null;
+            if (lit != null) {
+                index = start;    // the literal isn't in our buffer
+                if (returnString) // return as String
+                    return toString(lit.getBytes(), 0, count);
+                else
+                    return lit;
+            }
+
             index = start + count; // position index to beyond the literal
 
             if (returnString) // return as String
@@ -581,6 +669,40 @@ public class Response {
         return ex;
     }
 
+    /**
+     * Release the buffer holding this response, allowing it to be
+     * reused to read another response on the same connection.
+     * This should only be called once everything needed has been
+     * parsed out of the response, and nothing refers to the buffer
+     * (e.g., through a ByteArray returned by {@link #readByteArray}).
+     * After the buffer is released, the response is empty, except
+     * that {@link #toString} still returns the start of the response,
+     * for logging. <p>
+     *
+     * It's not necessary to release a response; if it's not released,
+     * its buffer is simply garbage collected.
+     *
+     * @since JavaMail 1.6.7
+     */
+    public void release() {
+        Protocol p;
+        ByteArray ba;
+        synchronized (this) {
+            p = pool;
+            ba = pooled;
+            pool = null;
+            pooled = null;
+        }
+        if (p == null)
+            return;
+        released = size > RELEASED_MAX ?
+                toString(buffer, 0, RELEASED_MAX) + "..." :
+                toString(buffer, 0, size);
+        buffer = EMPTY;
+        size = index = pindex = 0;
+        p.releaseResponseBuffer(ba);
+    }
+
     /**
      * Reset pointer to beginning of response.
      */
@@ -590,6 +712,8 @@ public class Response {
 
     @Override
     public String toString() {
+        if (released != null)
+            return released;
         return toString(buffer, 0, size);
     }
 
@@ -21,6 +21,8 @@ import com.sun.mail.util.ASCIIUtility;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Inputstream that is used to read a Response.
@@ -37,6 +39,10 @@ public class ResponseInputStream {
 
     // where we read from
     private BufferedInputStream bin;
+    // literals larger than this are kept out of the response buffer
+    private final int literalThreshold;
+    // the large literals in the last response, by position in the buffer
+    private Map<Integer, ByteArray> literals;
 
     /**
      * Constructor.
@@ -44,7 +50,26 @@ public class ResponseInputStream {
      * @param in the InputStream to wrap
      */
     public ResponseInputStream(InputStream in) {
+        this(in, 0);
+    }
+
+    /**
+     * Constructor.  Literals larger than <code>literalThreshold</code>
+     * bytes are each read into a separate buffer of exactly the right
+     * size, instead of into the buffer holding the rest of the response.
+     * This avoids repeatedly growing and copying the response buffer
+     * to hold large literals, such as the content of a message.
+     * If <code>literalThreshold</code> is zero or negative, all literals
+     * are read into the response buffer.
+     *
+     * @param in               the InputStream to wrap
+     * @param literalThreshold the size above which literals are
+     *                         kept in separate buffers
+     * @since JavaMail 1.6.7
+     */
+    public ResponseInputStream(InputStream in, int literalThreshold) {
         bin = new BufferedInputStream(in, 2 * 1024);
+        this.literalThreshold = literalThreshold;
     }
 
     /**
@@ -67,6 +92,7 @@ public class ResponseInputStream {
     public ByteArray readResponse(ByteArray ba) throws IOException {
         if (ba == null)
             ba = new ByteArray(new byte[128], 0, 128);
+        literals = null;
 
         byte[] buffer = ba.getBytes();
         int idx = 0;
@@ -118,7 +144,17 @@ public class ResponseInputStream {
             }
 
             // Now read 'count' bytes. (Note: count could be 0)
-            if (count > 0) {
+            if (literalThreshold > 0 && count > literalThreshold) {
+                /*
+                 * Read the literal into its own buffer, and remember
+                 * where it would have been in the response buffer.
+                 */
+                byte[] lit = new byte[count];
+                readFully(lit, 0, count);
+                if (literals == null)
+                    literals = new HashMap<>();
+                literals.put(Integer.valueOf(idx), new ByteArray(lit, 0, count));
+            } else if (count > 0) {
                 int avail = buffer.length - idx; // available space in buffer
                 if (count + incrementSlop > avail) {
                     // need count-avail more bytes
@@ -131,14 +167,8 @@ public class ResponseInputStream {
                  * read() might not return all the bytes in one shot,
                  * so call repeatedly till we are done
                  */
-                int actual;
-                while (count > 0) {
-                    actual = bin.read(buffer, idx, count);
-                    if (actual == -1)
-                        throw new IOException("Connection dropped by server?");
-                    count -= actual;
-                    idx += actual;
-                }
+                readFully(buffer, idx, count);
+                idx += count;
             }
             // back to top of loop to read until CRLF
         }
@@ -146,6 +176,34 @@ public class ResponseInputStream {
         return ba;
     }
 
+    /**
+     * Read exactly count bytes into the buffer.
+     */
+    private void readFully(byte[] buffer, int idx, int count)
+            throws IOException {
+        /*
+         * read() might not return all the bytes in one shot,
+         * so call repeatedly till we are done
+         */
+        int actual;
+        while (count > 0) {
+            actual = bin.read(buffer, idx, count);
+            if (actual == -1)
+                throw new IOException("Connection dropped by server?");
+            count -= actual;
+            idx += actual;
+        }
+    }
+
+    /**
+     * Return the literals from the last response that were read into
+     * separate buffers, indexed by the position in the response buffer
+     * where the literal data would have started, or null if none.
+     */
+    Map<Integer, ByteArray> getLiterals() {
+        return literals;
+    }
+
     /**
      * How much buffered data do we have?
      *
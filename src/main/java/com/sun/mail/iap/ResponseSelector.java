@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.iap;
+
+import com.sun.mail.util.MailLogger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+
+/**
+ * ResponseSelector executes commands on many Protocol connections
+ * without dedicating a thread to each connection while it waits
+ * for the server to respond.  A single "select" thread uses a
+ * {@link java.nio.channels.Selector Selector} to wait for responses
+ * on all the connections.  When responses are available on a
+ * connection, they are read and dispatched to the command's
+ * {@link Handler Handler} by a task run by the Executor.
+ * An Executor is typically provided by an ExecutorService:
+ * <blockquote><pre>
+ * 	ExecutorService es = Executors.newCachedThreadPool();
+ * 	ResponseSelector rs = new ResponseSelector(logger, es);
+ * 	rs.command(protocol, "NOOP", null, new ResponseSelector.Handler() {
+ * 	    public void handleResponse(Response r) {
+ * 		// process untagged response
+ *        }
+ * 	    public void commandComplete(Response r) {
+ * 		// process command completion (or BYE) response
+ *        }
+ *    });
+ * </pre></blockquote>
+ * This is the approach used by {@link com.sun.mail.imap.IdleManager
+ * IdleManager} to watch folders with the IDLE command, generalized
+ * to any command.  Once the server has started to send a response,
+ * the rest of the response is read in blocking mode, so a thread is
+ * only used while responses are actually arriving.
+ * <p>
+ * As with IdleManager, the connection must use a
+ * {@link java.nio.channels.SocketChannel SocketChannel}, which requires
+ * the <code>mail.imap.usesocketchannels</code> property to be set.
+ * While a command is in progress, the Protocol object must not be used
+ * for anything else.
+ * <p>
+ * NOTE: The ResponseSelector, and all APIs related to it, should
+ * be considered <strong>EXPERIMENTAL</strong>.  They may be changed in the
+ * future in ways that are incompatible with applications using the
+ * current APIs.
+ *
+ * @since JavaMail 1.6.7
+ */
+public class ResponseSelector {
+    private Executor es;
+    private Selector selector;
+    private MailLogger logger;
+    private volatile boolean die = false;
+    private volatile boolean running;
+    private Queue<Command> toWatch = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create a ResponseSelector.  The Executor is used to create the
+     * "select" thread and to read and dispatch responses.
+     *
+     * @param logger the MailLogger to use for debug output
+     * @param es     the Executor used to create threads
+     * @throws IOException for Selector failures
+     */
+    public ResponseSelector(MailLogger logger, Executor es)
+            throws IOException {
+        this.es = es;
+        this.logger = logger.getSubLogger("selector", "DEBUG IAP");
+        selector = Selector.open();
+        es.execute(new Runnable() {
+            @Override
+            public void run() {
+                ResponseSelector.this.logger.fine(
+                        "ResponseSelector select starting");
+                try {
+                    running = true;
+                    select();
+                } finally {
+                    running = false;
+                    ResponseSelector.this.logger.fine(
+                            "ResponseSelector select terminating");
+                }
+            }
+        });
+    }
+
+    /**
+     * Is the ResponseSelector currently running?  The ResponseSelector
+     * starts running when the Executor schedules its task.  It stops
+     * running after its task detects the stop request from the
+     * {@link #stop stop} method, or if it terminates abnormally due
+     * to an unexpected error.
+     *
+     * @return true if the ResponseSelector is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Send a command to the server and return without waiting for
+     * the response.  Each untagged response to the command is passed
+     * to the handler's <code>handleResponse</code> method as it's read.
+     * The command completion response, or a BYE response (indicating
+     * server failure), is passed to the handler's
+     * <code>commandComplete</code> method, after which the Protocol
+     * object may be used again.  As with
+     * {@link Protocol#command(String, Argument) Protocol.command},
+     * I/O errors are converted to a BYE response.
+     *
+     * @param p       the Protocol to send the command on
+     * @param command the command
+     * @param args    the arguments
+     * @param handler the handler for the responses
+     * @throws ProtocolException if the ResponseSelector isn't running
+     *                           or the Protocol isn't using a SocketChannel
+     */
+    public void command(Protocol p, String command, Argument args,
+                        Handler handler) throws ProtocolException {
+        if (die)
+            throw new ProtocolException("ResponseSelector is not running");
+        if (p.getChannel() == null)
+            throw new ProtocolException("Protocol is not using SocketChannels");
+
+        Command c = new Command(p, handler);
+        Response r = null;
+        synchronized (p) {
+            try {
+                c.tag = p.writeCommand(command, args);
+            } catch (LiteralException lex) {
+                r = lex.getResponse();
+            } catch (Exception ex) {
+                // Convert this into a BYE response
+                r = Response.byeResponse(ex);
+            }
+        }
+        if (r != null) {
+            handler.commandComplete(r);
+            return;
+        }
+        if (logger.isLoggable(Level.FINEST))
+            logger.log(Level.FINEST, "ResponseSelector sent {0} {1}",
+                    new Object[]{c.tag, command});
+        watch(c);
+    }
+
+    /**
+     * Add the command to the queue of commands to be registered
+     * with the selector.
+     */
+    private void watch(Command c) {
+        synchronized (this) {
+            toWatch.add(c);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Run the {@link java.nio.channels.Selector#select select} loop
+     * to wait for responses on each connection.
+     */
+    private void select() {
+        die = false;
+        try {
+            while (!die) {
+                watchAll();
+                logger.finest("ResponseSelector waiting...");
+                int ns = selector.select();
+                if (logger.isLoggable(Level.FINEST))
+                    logger.log(Level.FINEST,
+                            "ResponseSelector selected {0} channels", ns);
+                if (die || Thread.currentThread().isInterrupted())
+                    break;
+
+                /*
+                 * As in IdleManager, we cancel the selection key for
+                 * each selected connection, and the connection is added
+                 * to the toWatch list again if more responses are
+                 * expected.  Calling selectNow() makes sure the cancelled
+                 * keys are removed before the connection can be
+                 * registered again.
+                 */
+                do {
+                    processKeys();
+                } while (selector.selectNow() > 0);
+            }
+        } catch (InterruptedIOException ex) {
+            logger.log(Level.FINEST, "ResponseSelector interrupted", ex);
+        } catch (IOException ex) {
+            logger.log(Level.FINEST, "ResponseSelector got I/O exception", ex);
+        } catch (Exception ex) {
+            logger.log(Level.FINEST, "ResponseSelector got exception", ex);
+        } finally {
+            die = true;    // prevent new commands in case of exception
+            logger.finest("ResponseSelector unwatchAll");
+            try {
+                unwatchAll();
+                selector.close();
+            } catch (IOException ex2) {
+                // nothing to do...
+                logger.log(Level.FINEST,
+                        "ResponseSelector unwatch exception", ex2);
+            }
+            logger.fine("ResponseSelector exiting");
+        }
+    }
+
+    /**
+     * Register all of the connections in the queue with the selector,
+     * switching them to nonblocking I/O mode first.
+     */
+    private void watchAll() {
+        Command c;
+        while ((c = toWatch.poll()) != null) {
+            try {
+                SocketChannel sc = c.protocol.getChannel();
+                if (sc == null) {
+                    c.fail(new IOException("connection closed"));
+                    continue;
+                }
+                // has to be non-blocking to select
+                sc.configureBlocking(false);
+                sc.register(selector, SelectionKey.OP_READ, c);
+            } catch (IOException | RuntimeException ex) {
+                // e.g., the connection was closed
+                logger.log(Level.FINEST,
+                        "ResponseSelector can't register connection", ex);
+                c.fail(ex);
+            }
+        }
+    }
+
+    /**
+     * Process the selected keys, handing each connection
+     * with data to read to the Executor.
+     */
+    private void processKeys() {
+        Set<SelectionKey> selectedKeys = selector.selectedKeys();
+        Iterator<SelectionKey> it = selectedKeys.iterator();
+        while (it.hasNext()) {
+            SelectionKey sk = it.next();
+            it.remove();    // only process each key once
+            // have to cancel so we can switch back to blocking I/O mode
+            sk.cancel();
+            final Command c = (Command) sk.attachment();
+            es.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (c.readResponses())
+                        watch(c);    // more to come
+                }
+            });
+        }
+    }
+
+    /**
+     * Stop watching all connections.  Cancel any selection keys and
+     * switch the channels back to blocking mode.  Commands that haven't
+     * completed are completed with a BYE response.
+     */
+    private void unwatchAll() {
+        for (SelectionKey sk : selector.keys()) {
+            // have to cancel so we can switch back to blocking I/O mode
+            sk.cancel();
+            try {
+                sk.channel().configureBlocking(true);
+            } catch (IOException ex) {
+                // ignore it, channel might be closed
+                logger.log(Level.FINEST,
+                        "ResponseSelector exception while unwatching", ex);
+            }
+            ((Command) sk.attachment()).fail(
+                    new IOException("ResponseSelector stopped"));
+        }
+        Command c;
+        while ((c = toWatch.poll()) != null)
+            c.fail(new IOException("ResponseSelector stopped"));
+    }
+
+    /**
+     * Stop the ResponseSelector.  The ResponseSelector can not be restarted.
+     */
+    public synchronized void stop() {
+        die = true;
+        logger.fine("ResponseSelector stopping");
+        selector.wakeup();
+    }
+
+    /**
+     * The handler for the responses to a command
+     * sent using a ResponseSelector.
+     */
+    public interface Handler extends ResponseHandler {
+        /**
+         * Called with the command completion response, or a BYE
+         * response, when the command is done.
+         *
+         * @param r the final response
+         */
+        void commandComplete(Response r);
+    }
+
+    /**
+     * A command in progress.
+     */
+    private class Command {
+        final Protocol protocol;
+        final Handler handler;
+        String tag;
+        Response byeResp;
+
+        Command(Protocol protocol, Handler handler) {
+            this.protocol = protocol;
+            this.handler = handler;
+        }
+
+        /**
+         * Read and dispatch the responses that are available.
+         * Returns true if more responses are expected.
+         */
+        boolean readResponses() {
+            Response last = null;
+            synchronized (protocol) {
+                try {
+                    // switch back to blocking to allow normal I/O
+                    SocketChannel sc = protocol.getChannel();
+                    if (sc == null)
+                        throw new IOException("connection closed");
+                    sc.configureBlocking(true);
+                    do {
+                        Response r;
+                        try {
+                            r = protocol.readResponse();
+                        } catch (ProtocolException pex) {
+                            logger.log(Level.FINE, "ignoring bad response", pex);
+                            continue; // skip this response
+                        }
+                        if (r.isBYE())
+                            byeResp = r;
+                        else if (r.isTagged() && r.getTag().equals(tag))
+                            last = r;
+                        else
+                            handler.handleResponse(r);
+                    } while (last == null && protocol.hasResponse());
+                } catch (IOException ioex) {
+                    if (byeResp == null)    // convert this into a BYE response
+                        byeResp = Response.byeResponse(ioex);
+                    // else, connection closed after BYE was sent
+                    last = byeResp;
+                } catch (RuntimeException ex) {
+                    logger.log(Level.FINE, "ResponseSelector handler failed",
+                            ex);
+                    last = Response.byeResponse(ex);
+                }
+            }
+            if (last == null)
+                return true;
+            if (byeResp != null && byeResp != last) {
+                handler.handleResponse(last);
+                last = byeResp;
+            }
+            handler.commandComplete(last);
+            return false;
+        }
+
+        /**
+         * Complete the command with a BYE response for the exception.
+         */
+        void fail(Exception ex) {
+            handler.commandComplete(byeResp != null ?
+                    byeResp : Response.byeResponse(ex));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.imap;
+
+import java.util.EventListener;
+
+/**
+ * A listener for the activity of the connection pool of an
+ * {@link IMAPStore}.  A listener is added to a Store using the
+ * {@link IMAPStore#addConnectionPoolListener addConnectionPoolListener}
+ * method.  {@link ConnectionPoolStats} is a listener that keeps
+ * statistics about the pool. <p>
+ *
+ * The methods of this interface are called while holding the lock
+ * on the connection pool, or just after acquiring or releasing a
+ * connection.  They must return quickly and must not use the Store
+ * or its Folders. <p>
+ *
+ * Times are in nanoseconds, as returned by {@link System#nanoTime}.
+ * <p>
+ * NOTE: The ConnectionPoolListener, and all APIs related to it, should
+ * be considered <strong>EXPERIMENTAL</strong>.  They may be changed in the
+ * future in ways that are incompatible with applications using the
+ * current APIs.
+ *
+ * @since JavaMail 1.6.7
+ */
+public interface ConnectionPoolListener extends EventListener {
+
+    /**
+     * A connection was acquired from the pool, either by a Folder
+     * being opened or as the store connection.
+     *
+     * @param store true for the store connection
+     * @param time  the time it took to acquire the connection,
+     *              including any wait and any new connection made
+     */
+    void connectionBorrowed(boolean store, long time);
+
+    /**
+     * A connection was given back to the pool, either by a Folder
+     * being closed or as the store connection.
+     *
+     * @param store  true for the store connection
+     * @param pooled false if the pool was full and the connection
+     *               was logged out
+     * @param time   the time it took to release the connection
+     */
+    void connectionReleased(boolean store, boolean pooled, long time);
+
+    /**
+     * A new connection was made to the server because no connection
+     * was available in the pool.
+     *
+     * @param store   true if it's for the store connection
+     * @param success false if the connection or login failed
+     */
+    void connectionCreated(boolean store, boolean success);
+
+    /**
+     * A thread waited for another thread to finish using the
+     * store connection.
+     *
+     * @param time the time spent waiting
+     */
+    void storeConnectionWaited(long time);
+
+    /**
+     * A NOOP command was sent to keep a connection alive, either on a
+     * pooled connection that hadn't been used for longer than the server
+     * timeout interval (<code>mail.imap.servertimeout</code>), or by a
+     * folder on its own connection or on the store connection while
+     * it's busy, for example while fetching a large message.
+     *
+     * @param alive false if the NOOP failed
+     */
+    void keepAliveNoop(boolean alive);
+
+    /**
+     * An idle connection was removed from the pool because it hadn't
+     * been used for longer than the client timeout interval
+     * (<code>mail.imap.connectionpooltimeout</code>).
+     */
+    void connectionPruned();
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package com.sun.mail.imap;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics about the activity of the connection pool of an
+ * {@link IMAPStore}, returned by
+ * {@link IMAPStore#getConnectionPoolStats getConnectionPoolStats}.
+ * The statistics are collected by listening to the pool, and are
+ * useful for choosing the size of the pool
+ * (<code>mail.imap.connectionpoolsize</code>) and its timeouts.
+ * <p>
+ * NOTE: The ConnectionPoolStats, and all APIs related to it, should
+ * be considered <strong>EXPERIMENTAL</strong>.  They may be changed in the
+ * future in ways that are incompatible with applications using the
+ * current APIs.
+ *
+ * @see ConnectionPoolStatsMXBean
+ * @since JavaMail 1.6.7
+ */
+public class ConnectionPoolStats
+        implements ConnectionPoolListener, ConnectionPoolStatsMXBean {
+
+    // upper bounds of the histogram buckets, in milliseconds
+    private static final long[] bounds = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+    };
+
+    private final IMAPStore.ConnectionPool pool;
+    private final AtomicLong folderBorrows = new AtomicLong();
+    private final AtomicLong storeBorrows = new AtomicLong();
+    private final AtomicLong releases = new AtomicLong();
+    private final AtomicLong releaseDiscards = new AtomicLong();
+    private final AtomicLong creates = new AtomicLong();
+    private final AtomicLong createFailures = new AtomicLong();
+    private final AtomicLong storeWaits = new AtomicLong();
+    private final AtomicLong storeWaitTime = new AtomicLong();
+    private final AtomicLong noops = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong prunes = new AtomicLong();
+    private final AtomicLong maxBorrowTime = new AtomicLong();
+    private final AtomicLongArray borrowTimes =
+            new AtomicLongArray(bounds.length + 1);
+    private final AtomicLongArray releaseTimes =
+            new AtomicLongArray(bounds.length + 1);
+
+    ConnectionPoolStats(IMAPStore.ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void connectionBorrowed(boolean store, long time) {
+        if (store)
+            storeBorrows.incrementAndGet();
+        else
+            folderBorrows.incrementAndGet();
+        long ms = TimeUnit.NANOSECONDS.toMillis(time);
+        record(borrowTimes, ms);
+        long max;
+        while (ms > (max = maxBorrowTime.get()))
+            if (maxBorrowTime.compareAndSet(max, ms))
+                break;
+    }
+
+    @Override
+    public void connectionReleased(boolean store, boolean pooled, long time) {
+        releases.incrementAndGet();
+        if (!pooled)
+            releaseDiscards.incrementAndGet();
+        record(releaseTimes, TimeUnit.NANOSECONDS.toMillis(time));
+    }
+
+    @Override
+    public void connectionCreated(boolean store, boolean success) {
+        if (success)
+            creates.incrementAndGet();
+        else
+            createFailures.incrementAndGet();
+    }
+
+    @Override
+    public void storeConnectionWaited(long time) {
+        storeWaits.incrementAndGet();
+        storeWaitTime.addAndGet(TimeUnit.NANOSECONDS.toMillis(time));
+    }
+
+    @Override
+    public void keepAliveNoop(boolean alive) {
+        noops.incrementAndGet();
+        if (!alive)
+            timeouts.incrementAndGet();
+    }
+
+    @Override
+    public void connectionPruned() {
+        prunes.incrementAndGet();
+    }
+
+    /**
+     * Count the time in the right histogram bucket.
+     */
+    private static void record(AtomicLongArray histogram, long ms) {
+        int i = 0;
+        while (i < bounds.length && ms > bounds[i])
+            i++;
+        histogram.incrementAndGet(i);
+    }
+
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] a = new long[histogram.length()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = histogram.get(i);
+        return a;
+    }
+
+    @Override
+    public int getPoolSize() {
+        return pool.getPoolSize();
+    }
+
+    @Override
+    public int getAvailableConnections() {
+        return pool.getAvailableConnections();
+    }
+
+    @Override
+    public int getOpenFolders() {
+        return pool.getOpenFolders();
+    }
+
+    @Override
+    public boolean isStoreConnectionInUse() {
+        return pool.isStoreConnectionInUse();
+    }
+
+    @Override
+    public long getFolderBorrowCount() {
+        return folderBorrows.get();
+    }
+
+    @Override
+    public long getStoreBorrowCount() {
+        return storeBorrows.get();
+    }
+
+    @Override
+    public long getReleaseCount() {
+        return releases.get();
+    }
+
+    @Override
+    public long getReleaseDiscardCount() {
+        return releaseDiscards.get();
+    }
+
+    @Override
+    public long getCreateCount() {
+        return creates.get();
+    }
+
+    @Override
+    public long getCreateFailureCount() {
+        return createFailures.get();
+    }
+
+    @Override
+    public long getStoreWaitCount() {
+        return storeWaits.get();
+    }
+
+    @Override
+    public long getStoreWaitTime() {
+        return storeWaitTime.get();
+    }
+
+    @Override
+    public long getKeepAliveNoopCount() {
+        return noops.get();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    @Override
+    public long getPruneCount() {
+        return prunes.get();
+    }
+
+    @Override
+    public long getMaxBorrowTime() {
+        return maxBorrowTime.get();
+    }
+
+    @Override
+    public long[] getHistogramBounds() {
+        return bounds.clone();
+    }
+
+    @Override
+    public long[] getBorrowTimeHistogram() {
+        return toArray(borrowTimes);
+    }
+
+    @Override
+    public long[] getReleaseTimeHistogram() {
+        return toArray(releaseTimes);
+    }
+
+    @Override
+    public void reset() {
+        AtomicLong[] counters = {
+                folderBorrows, storeBorrows, releases, releaseDiscards,
+                creates, createFailures, storeWaits, storeWaitTime, noops,
+                timeouts, prunes, maxBorrowTime
+        };
+        for (AtomicLong c : counters)
+            c.set(0);
+        for (int i = 0; i < borrowTimes.length(); i++) {
+            borrowTimes.set(i, 0);
+            releaseTimes.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStats[folderBorrows=" + getFolderBorrowCount() +
+                ", storeBorrows=" + getStoreBorrowCount() +
+                ", releases=" + getReleaseCount() +
+                ", creates=" + getCreateCount() +
+                ", storeWaits=" + getStoreWaitCount() +
+                ", timeouts=" + getTimeoutCount() +
+                ", prunes=" + getPruneCount() + "]";
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.imap;
+
+/**
+ * The management interface of {@link ConnectionPoolStats}.
+ * If the <code>mail.imap.connectionpool.jmx</code> property is
+ * set to true, the statistics of each connected {@link IMAPStore}
+ * are registered with the platform MBean server, using a name of
+ * the form
+ * <code>com.sun.mail.imap:type=ConnectionPool,host=<i>host</i>,port=<i>port</i>,id=<i>id</i></code>.
+ * <p>
+ * Times are in milliseconds.  The histograms count the operations
+ * taking no more than each of the times returned by
+ * {@link #getHistogramBounds getHistogramBounds}, with an extra
+ * element at the end for the operations that took longer.
+ * <p>
+ * NOTE: The ConnectionPoolStatsMXBean, and all APIs related to it, should
+ * be considered <strong>EXPERIMENTAL</strong>.  They may be changed in the
+ * future in ways that are incompatible with applications using the
+ * current APIs.
+ *
+ * @since JavaMail 1.6.7
+ */
+public interface ConnectionPoolStatsMXBean {
+
+    /**
+     * @return the maximum number of connections kept in the pool
+     */
+    int getPoolSize();
+
+    /**
+     * @return the number of connections in the pool, including the
+     * store connection
+     */
+    int getAvailableConnections();
+
+    /**
+     * @return the number of open Folders, each with its own connection
+     */
+    int getOpenFolders();
+
+    /**
+     * @return is the store connection in use?
+     */
+    boolean isStoreConnectionInUse();
+
+    /**
+     * @return the number of connections acquired by Folders
+     */
+    long getFolderBorrowCount();
+
+    /**
+     * @return the number of times the store connection was acquired
+     */
+    long getStoreBorrowCount();
+
+    /**
+     * @return the number of connections returned to the pool
+     */
+    long getReleaseCount();
+
+    /**
+     * @return the number of connections logged out because the pool
+     * was full
+     */
+    long getReleaseDiscardCount();
+
+    /**
+     * @return the number of new connections made
+     */
+    long getCreateCount();
+
+    /**
+     * @return the number of failed attempts to make a new connection
+     */
+    long getCreateFailureCount();
+
+    /**
+     * @return the number of times a thread waited for the store connection
+     */
+    long getStoreWaitCount();
+
+    /**
+     * @return the total time threads waited for the store connection
+     */
+    long getStoreWaitTime();
+
+    /**
+     * @return the number of keep alive NOOP commands sent
+     */
+    long getKeepAliveNoopCount();
+
+    /**
+     * @return the number of connections found to have timed out
+     * by a keep alive NOOP command
+     */
+    long getTimeoutCount();
+
+    /**
+     * @return the number of idle connections removed from the pool
+     */
+    long getPruneCount();
+
+    /**
+     * @return the longest time taken to acquire a connection
+     */
+    long getMaxBorrowTime();
+
+    /**
+     * @return the upper bounds of the histogram buckets, in milliseconds
+     */
+    long[] getHistogramBounds();
+
+    /**
+     * @return the histogram of times taken to acquire a connection
+     */
+    long[] getBorrowTimeHistogram();
+
+    /**
+     * @return the histogram of times taken to release a connection
+     */
+    long[] getReleaseTimeHistogram();
+
+    /**
+     * Reset all the counters and histograms to zero.
+     */
+    void reset();
+}
@@ -1176,11 +1176,37 @@ public class IMAPFolder extends Folder implements UIDFolder, ResponseHandler {
                 // We already have what we need.
                 return;
 
-            Response[] r = null;
             // to collect non-FETCH responses & unsolicited FETCH FLAG responses
-            List<Response> v = new ArrayList<>();
+            final List<Response> v = new ArrayList<>();
+            final String[] fhdrs = hdrs;
+            final boolean fallHeaders = allHeaders;
+            final FetchProfile ffp = fp;
+            // the first failure while applying a FETCH response
+            final MessagingException[] mex = new MessagingException[1];
+            Response r = null;
             try {
-                r = getProtocol().fetch(msgsets, command.toString());
+                // process each FETCH response as it is read,
+                // rather than holding them all in memory
+                r = getProtocol().fetch(msgsets, command.toString(),
+                        new ResponseHandler() {
+                            @Override
+                            public void handleResponse(Response resp) {
+                                if (!(resp instanceof FetchResponse)) {
+                                    v.add(resp); // Unsolicited Non-FETCH response
+                                    return;
+                                }
+                                if (mex[0] != null)
+                                    return;    // just drain the responses
+                                try {
+                                    if (!handleFetchResponse(
+                                            (FetchResponse) resp,
+                                            ffp, fhdrs, fallHeaders))
+                                        v.add(resp);
+                                } catch (MessagingException ex) {
+                                    mex[0] = ex;
+                                }
+                            }
+                        });
             } catch (ConnectionException cex) {
                 throw new FolderClosedException(this, cex.getMessage());
             } catch (CommandFailedException cfx) {
@@ -1189,44 +1215,11 @@ public class IMAPFolder extends Folder implements UIDFolder, ResponseHandler {
                 throw new MessagingException(pex.getMessage(), pex);
             }
 
+            if (mex[0] != null)
+                throw mex[0];
             if (r == null)
                 return;
-
-            for (int i = 0; i < r.length; i++) {
-                if (r[i] == null)
-                    continue;
-                if (!(r[i] instanceof FetchResponse)) {
-                    v.add(r[i]); // Unsolicited Non-FETCH response
-                    continue;
-                }
-
-                // Got a FetchResponse.
-                FetchResponse f = (FetchResponse) r[i];
-                // Get the corresponding message.
-                IMAPMessage msg = getMessageBySeqNumber(f.getNumber());
-
-                int count = f.getItemCount();
-                boolean unsolicitedFlags = false;
-
-                for (int j = 0; j < count; j++) {
-                    Item item = f.getItem(j);
-                    // Check for the FLAGS item
-                    if (item instanceof Flags &&
-                            (!fp.contains(FetchProfile.Item.FLAGS) ||
-                                    msg == null)) {
-                        // Ok, Unsolicited FLAGS update.
-                        unsolicitedFlags = true;
-                    } else if (msg != null)
-                        msg.handleFetchItem(item, hdrs, allHeaders);
-                }
-                if (msg != null)
-                    msg.handleExtensionFetchItems(f.getExtensionItems());
-
-                // If this response contains any unsolicited FLAGS
-                // add it to the unsolicited response vector
-                if (unsolicitedFlags)
-                    v.add(f);
-            }
+            v.add(r);
 
             // Dispatch any unsolicited responses
             if (!v.isEmpty()) {
@@ -1238,6 +1231,39 @@ public class IMAPFolder extends Folder implements UIDFolder, ResponseHandler {
         } // Release messageCacheLock
     }
 
+    /**
+     * Apply a FETCH response to the corresponding message.
+     * Returns false if the response contains unsolicited FLAGS
+     * and must still be dispatched to the response handlers.
+     */
+    private boolean handleFetchResponse(FetchResponse f, FetchProfile fp,
+                                        String[] hdrs, boolean allHeaders)
+            throws MessagingException {
+        // Get the corresponding message.
+        IMAPMessage msg = getMessageBySeqNumber(f.getNumber());
+
+        int count = f.getItemCount();
+        boolean unsolicitedFlags = false;
+
+        for (int j = 0; j < count; j++) {
+            Item item = f.getItem(j);
+            // Check for the FLAGS item
+            if (item instanceof Flags &&
+                    (!fp.contains(FetchProfile.Item.FLAGS) ||
+                            msg == null)) {
+                // Ok, Unsolicited FLAGS update.
+                unsolicitedFlags = true;
+            } else if (msg != null)
+                msg.handleFetchItem(item, hdrs, allHeaders);
+        }
+        if (msg != null)
+            msg.handleExtensionFetchItems(f.getExtensionItems());
+
+        // If this response contains any unsolicited FLAGS
+        // it needs to be dispatched as an unsolicited response
+        return !unsolicitedFlags;
+    }
+
     /**
      * Return the IMAP FETCH items to request in order to load
      * all the "envelope" data.  Subclasses can override this
@@ -3835,7 +3861,7 @@ public class IMAPFolder extends Folder implements UIDFolder, ResponseHandler {
         if (System.currentTimeMillis() - protocol.getTimestamp() > 1000) {
             waitIfIdle();
             if (protocol != null)
-                protocol.noop();
+                keepAliveNoop(protocol);
         }
 
         if (keepStoreAlive && ((IMAPStore) store).hasSeparateStoreConnection()) {
@@ -3843,13 +3869,27 @@ public class IMAPFolder extends Folder implements UIDFolder, ResponseHandler {
             try {
                 p = ((IMAPStore) store).getFolderStoreProtocol();
                 if (System.currentTimeMillis() - p.getTimestamp() > 1000)
-                    p.noop();
+                    keepAliveNoop(p);
             } finally {
                 ((IMAPStore) store).releaseFolderStoreProtocol(p);
             }
         }
     }
 
+    /**
+     * Send a NOOP to keep the connection alive, reporting
+     * the result to the connection pool listeners.
+     */
+    private void keepAliveNoop(IMAPProtocol p) throws ProtocolException {
+        try {
+            p.noop();
+        } catch (ProtocolException pex) {
+            ((IMAPStore) store).keepAliveNoop(false);
+            throw pex;
+        }
+        ((IMAPStore) store).keepAliveNoop(true);
+    }
+
     /**
      * Get the message object for the given sequence number. If
      * none found, null is returned.
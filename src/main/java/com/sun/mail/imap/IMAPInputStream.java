@@ -41,10 +41,18 @@ public class IMAPInputStream extends InputStream {
     // Allocate this much extra space in the read buffer to allow
     // space for the FETCH response overhead
     private static final int slop = 64;
+    // Grow the block size if a FETCH request takes less than this long
+    private static final long growTime = 250;    // milliseconds
     private IMAPMessage msg; // this message
     private String section;  // section-id
     private int pos;      // track the position within the IMAP datastream
     private int blksize;  // number of bytes to read in each FETCH request
+    private int maxblksize;   // blksize can grow to this
+    private boolean readAhead;    // start the next FETCH early?
+    private String aheadTag;  // tag of the next FETCH, if started
+    private int aheadSeqnum;  // message number used for the next FETCH
+    private int aheadPos;     // position of the data in the next FETCH
+    private int aheadCnt;     // number of bytes requested by the next FETCH
     private int max;      // the total number of bytes in this section.
     //  -1 indicates unknown
     private byte[] buf;   // the buffer obtained from fetchBODY()
@@ -72,6 +80,8 @@ public class IMAPInputStream extends InputStream {
         this.peek = peek;
         pos = 0;
         blksize = msg.getFetchBlockSize();
+        maxblksize = msg.getMaxFetchBlockSize();
+        readAhead = msg.getFetchReadAhead();
     }
 
     /**
@@ -115,11 +125,12 @@ public class IMAPInputStream extends InputStream {
         }
 
         BODY b = null;
-        if (readbuf == null)
+        if (readbuf == null || readbuf.getBytes().length < blksize + slop)
             readbuf = new ByteArray(blksize + slop);
 
         ByteArray ba;
         int cnt;
+        long start = System.currentTimeMillis();
         // Acquire MessageCacheLock, to freeze seqnum.
         synchronized (msg.getMessageCacheLock()) {
             try {
@@ -130,14 +141,27 @@ public class IMAPInputStream extends InputStream {
                     throw new MessageRemovedIOException(
                             "No content for expunged message");
 
-                int seqnum = msg.getSequenceNumber();
-                cnt = blksize;
-                if (max != -1 && pos + blksize > max)
-                    cnt = max - pos;
-                if (peek)
-                    b = p.peekBody(seqnum, section, pos, cnt, readbuf);
-                else
-                    b = p.fetchBody(seqnum, section, pos, cnt, readbuf);
+                String tag = aheadTag;
+                aheadTag = null;
+                if (tag != null && aheadPos == pos &&
+                        p.isCommandPending(tag)) {
+                    // already asked for this data, wait for it
+                    cnt = aheadCnt;
+                    b = p.finishFetchBody(tag, aheadSeqnum, section);
+                } else {
+                    /*
+                     * If the FETCH started early was discarded because
+                     * another command was sent first, ask again.
+                     */
+                    int seqnum = msg.getSequenceNumber();
+                    cnt = blksize;
+                    if (max != -1 && pos + blksize > max)
+                        cnt = max - pos;
+                    if (peek)
+                        b = p.peekBody(seqnum, section, pos, cnt, readbuf);
+                    else
+                        b = p.fetchBody(seqnum, section, pos, cnt, readbuf);
+                }
             } catch (ProtocolException pex) {
                 forceCheckExpunged();
                 throw new IOException(pex.getMessage());
@@ -210,6 +234,44 @@ public class IMAPInputStream extends InputStream {
 
         bufcount = bufpos + n;
         pos += n;
+
+        /*
+         * If we got all we asked for without waiting long, the
+         * connection has more capacity than we're using, ask for
+         * more next time.
+         */
+        if (n == cnt && blksize < maxblksize &&
+                System.currentTimeMillis() - start < growTime)
+            blksize = (int) Math.min((long) blksize * 2, maxblksize);
+
+        // ask for the next block now, so it arrives while this one is read
+        if (readAhead && !lastBuffer && (max == -1 || pos < max))
+            startReadAhead();
+    }
+
+    /**
+     * Start the FETCH request for the next block of data.
+     * Errors are ignored here, they'll be noticed by the next
+     * call to fill().
+     */
+    private void startReadAhead() {
+        synchronized (msg.getMessageCacheLock()) {
+            try {
+                IMAPProtocol p = msg.getProtocol();
+                if (msg.isExpunged())
+                    return;
+                int seqnum = msg.getSequenceNumber();
+                int cnt = blksize;
+                if (max != -1 && pos + blksize > max)
+                    cnt = max - pos;
+                aheadTag = p.startFetchBody(seqnum, section, pos, cnt, peek);
+                aheadSeqnum = seqnum;
+                aheadPos = pos;
+                aheadCnt = cnt;
+            } catch (ProtocolException | FolderClosedException ex) {
+                // ignore it, we'll try again in fill()
+            }
+        }
     }
 
     /**
@@ -285,6 +347,28 @@ public class IMAPInputStream extends InputStream {
         return (bufcount - bufpos);
     }
 
+    /**
+     * Closes this input stream.  If the FETCH request for the next
+     * block of data has been started, its responses are collected
+     * and discarded.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        String tag = aheadTag;
+        aheadTag = null;
+        if (tag == null)
+            return;
+        synchronized (msg.getMessageCacheLock()) {
+            try {
+                IMAPProtocol p = msg.getProtocol();
+                if (p.isCommandPending(tag))
+                    p.finishFetchBody(tag, aheadSeqnum, section);
+            } catch (ProtocolException | FolderClosedException ex) {
+                // ignore it
+            }
+        }
+    }
+
     /**
      * Normally the SEEN flag will have been set by now, but if not,
      * force it to be set (as long as the folder isn't open read-only
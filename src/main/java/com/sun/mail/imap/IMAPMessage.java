@@ -273,6 +273,18 @@ public class IMAPMessage extends MimeMessage implements ReadableMime {
         return ((IMAPStore) folder.getStore()).getFetchBlockSize();
     }
 
+    // Return the size FETCH requests can grow to
+    // MUST be overridden by IMAPNestedMessage
+    protected int getMaxFetchBlockSize() {
+        return ((IMAPStore) folder.getStore()).getMaxFetchBlockSize();
+    }
+
+    // Start the next partial FETCH request before it's needed?
+    // MUST be overridden by IMAPNestedMessage
+    protected boolean getFetchReadAhead() {
+        return ((IMAPStore) folder.getStore()).getFetchReadAhead();
+    }
+
     // Should we ignore the size in the BODYSTRUCTURE?
     // MUST be overridden by IMAPNestedMessage
     protected boolean ignoreBodyStructureSize() {
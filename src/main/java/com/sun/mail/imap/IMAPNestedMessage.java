@@ -109,6 +109,22 @@ public class IMAPNestedMessage extends IMAPMessage {
         return msg.getFetchBlockSize();
     }
 
+    /*
+     * Get the enclosing message's maxFetchBlockSize.
+     */
+    @Override
+    protected int getMaxFetchBlockSize() {
+        return msg.getMaxFetchBlockSize();
+    }
+
+    /*
+     * Get the enclosing message's fetchReadAhead.
+     */
+    @Override
+    protected boolean getFetchReadAhead() {
+        return msg.getFetchReadAhead();
+    }
+
     /*
      * Get the enclosing message's ignoreBodyStructureSize.
      */
@@ -21,18 +21,24 @@ import com.sun.mail.imap.protocol.IMAPProtocol;
 import com.sun.mail.imap.protocol.IMAPReferralException;
 import com.sun.mail.imap.protocol.ListInfo;
 import com.sun.mail.imap.protocol.Namespaces;
+import com.sun.mail.imap.protocol.Status;
 import com.sun.mail.util.MailConnectException;
 import com.sun.mail.util.MailLogger;
 import com.sun.mail.util.PropUtil;
 import com.sun.mail.util.SocketConnectException;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.mail.*;
 import javax.mail.event.StoreEvent;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 
 /**
@@ -161,6 +167,8 @@ public class IMAPStore extends Store
     private final int blksize;        // Block size for data requested
     // in FETCH requests. Defaults to
     // 16K
+    private final int maxblksize;    // block size can grow to this
+    private final boolean fetchReadAhead;    // start next FETCH early?
     private final int statusCacheTimeout;    // cache Status for 1 second
     private final int appendBufferSize;    // max size of msg buffered for append
     private final int minIdleTime;    // minimum idle time
@@ -207,6 +215,8 @@ public class IMAPStore extends Store
     private boolean debugusername;    // include username in debug output?
     private boolean debugpassword;    // include password in debug output?
     private boolean messageCacheDebug;
+    private boolean poolJmx;    // register pool statistics MBean?
+    private ObjectName poolMBeanName;    // name of registered MBean
     // constructors for IMAPFolder class provided by user
     private volatile Constructor<?> folderConstructor = null;
 
@@ -287,6 +297,16 @@ public class IMAPStore extends Store
                 logger.config("mail.imap.fetchsize: " + blksize);
         }
 
+        maxblksize = Math.max(blksize, PropUtil.getIntProperty(props,
+                "mail." + name + ".maxfetchsize", blksize));
+        if (logger.isLoggable(Level.CONFIG))
+            logger.config("mail.imap.maxfetchsize: " + maxblksize);
+
+        fetchReadAhead = blksize != -1 && PropUtil.getBooleanProperty(props,
+                "mail." + name + ".fetchreadahead", false);
+        if (logger.isLoggable(Level.CONFIG))
+            logger.config("mail.imap.fetchreadahead: " + fetchReadAhead);
+
         ignoreSize = PropUtil.getBooleanProperty(props,
                 "mail." + name + ".ignorebodystructuresize", false);
         if (logger.isLoggable(Level.CONFIG))
@@ -389,6 +409,12 @@ public class IMAPStore extends Store
         messageCacheDebug = PropUtil.getBooleanProperty(props,
                 "mail." + name + ".messagecache.debug", false);
 
+        // check if the connection pool statistics should be registered
+        poolJmx = PropUtil.getBooleanProperty(props,
+                "mail." + name + ".connectionpool.jmx", false);
+        if (poolJmx)
+            logger.config("register connection pool MBean");
+
         guid = session.getProperty("mail." + name + ".yahoo.guid");
         if (guid != null)
             logger.log(Level.CONFIG, "mail.imap.yahoo.guid: {0}", guid);
@@ -554,9 +580,82 @@ public class IMAPStore extends Store
             throw new MessagingException(ioex.getMessage(), ioex);
         }
 
+        if (poolJmx)
+            registerPoolMBean();
         return true;
     }
 
+    /**
+     * Register the connection pool statistics with the platform
+     * MBean server.  Failures are only logged.
+     */
+    private synchronized void registerPoolMBean() {
+        if (poolMBeanName != null)
+            return;
+        try {
+            ObjectName on = new ObjectName("com.sun.mail.imap:" +
+                    "type=ConnectionPool,host=" + ObjectName.quote(host) +
+                    ",port=" + port +
+                    ",id=" + Integer.toHexString(System.identityHashCode(this)));
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbs.registerMBean(pool.stats, on);
+            poolMBeanName = on;
+            logger.log(Level.FINE, "registered connection pool MBean {0}", on);
+        } catch (JMException | RuntimeException ex) {
+            logger.log(Level.FINE, "can't register connection pool MBean", ex);
+        }
+    }
+
+    /**
+     * Unregister the connection pool statistics MBean, if registered.
+     */
+    private synchronized void unregisterPoolMBean() {
+        if (poolMBeanName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().
+                    unregisterMBean(poolMBeanName);
+        } catch (JMException | RuntimeException ex) {
+            logger.log(Level.FINE, "can't unregister connection pool MBean",
+                    ex);
+        }
+        poolMBeanName = null;
+    }
+
+    /**
+     * Return the statistics about the activity of this Store's
+     * connection pool.  The statistics are kept while the Store
+     * is connected and closed, and can be reset.
+     *
+     * @return the connection pool statistics
+     * @since JavaMail 1.6.7
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return pool.stats;
+    }
+
+    /**
+     * Add a listener for the activity of this Store's connection pool.
+     *
+     * @param l the listener
+     * @see ConnectionPoolListener
+     * @since JavaMail 1.6.7
+     */
+    public void addConnectionPoolListener(ConnectionPoolListener l) {
+        pool.listeners.add(l);
+    }
+
+    /**
+     * Remove a listener for the activity of this Store's connection pool.
+     *
+     * @param l the listener
+     * @since JavaMail 1.6.7
+     */
+    public void removeConnectionPoolListener(ConnectionPoolListener l) {
+        if (l != pool.stats)
+            pool.listeners.remove(l);
+    }
+
     /**
      * Create an IMAPProtocol object connected to the host and port.
      * Subclasses of IMAPStore may override this method to return a
@@ -816,6 +915,7 @@ public class IMAPStore extends Store
     IMAPProtocol getProtocol(IMAPFolder folder)
             throws MessagingException {
         IMAPProtocol p = null;
+        long start = System.nanoTime();
 
         // keep looking for a connection until we get a good one
         while (p == null) {
@@ -852,6 +952,7 @@ public class IMAPStore extends Store
                         p = null;
                     }
 
+                    pool.created(false, p != null);
                     if (p == null)
                         throw new MessagingException("connection failure");
                 } else {
@@ -877,7 +978,9 @@ public class IMAPStore extends Store
                             p.noop();
                             p.removeResponseHandler(nonStoreResponseHandler);
                             p.addResponseHandler(this);
+                            pool.keepAliveNoop(true);
                         } catch (ProtocolException pex) {
+                            pool.keepAliveNoop(false);
                             try {
                                 p.removeResponseHandler(nonStoreResponseHandler);
                                 p.disconnect();
@@ -934,6 +1037,7 @@ public class IMAPStore extends Store
 
         }
 
+        pool.borrowed(false, System.nanoTime() - start);
         return p;
     }
 
@@ -957,6 +1061,7 @@ public class IMAPStore extends Store
      */
     private IMAPProtocol getStoreProtocol() throws ProtocolException {
         IMAPProtocol p = null;
+        long start = System.nanoTime();
 
         while (p == null) {
             synchronized (pool) {
@@ -982,6 +1087,7 @@ public class IMAPStore extends Store
                         p = null;
                     }
 
+                    pool.created(true, p != null);
                     if (p == null)
                         throw new ConnectionException(
                                 "failed to create new store connection");
@@ -1011,7 +1117,9 @@ public class IMAPStore extends Store
                         // someone else is using the connection, give up
                         // and wait until they're done
                         p = null;
+                        long waitStart = System.nanoTime();
                         pool.wait();
+                        pool.storeWaited(System.nanoTime() - waitStart);
                     } catch (InterruptedException ex) {
                         // restore the interrupted state, which callers might
                         // depend on
@@ -1030,6 +1138,7 @@ public class IMAPStore extends Store
                 timeoutConnections();
             }
         }
+        pool.borrowed(true, System.nanoTime() - start);
         return p;
     }
 
@@ -1120,12 +1229,15 @@ public class IMAPStore extends Store
      * Release the protocol object back to the connection pool.
      */
     void releaseProtocol(IMAPFolder folder, IMAPProtocol protocol) {
+        long start = System.nanoTime();
+        boolean pooled = false;
 
         synchronized (pool) {
             if (protocol != null) {
                 // If the pool is not full, add the store as a response handler
                 // and return the protocol object to the connection pool.
                 if (!isConnectionPoolFull()) {
+                    pooled = true;
                     protocol.addResponseHandler(this);
                     pool.authenticatedConnections.addElement(protocol);
 
@@ -1147,6 +1259,8 @@ public class IMAPStore extends Store
 
             timeoutConnections();
         }
+        if (protocol != null)
+            pool.released(false, pooled, System.nanoTime() - start);
     }
 
     /**
@@ -1173,6 +1287,7 @@ public class IMAPStore extends Store
         }
 
         // now free the store connection
+        long start = System.nanoTime();
         synchronized (pool) {
             pool.storeConnectionInUse = false;
             pool.notifyAll();    // in case anyone waiting
@@ -1181,6 +1296,7 @@ public class IMAPStore extends Store
 
             timeoutConnections();
         }
+        pool.released(true, true, System.nanoTime() - start);
 
         /*
          * If the connection died while we were using it, clean up.
@@ -1192,12 +1308,21 @@ public class IMAPStore extends Store
             cleanup();
     }
 
+    /**
+     * Report a NOOP sent by a folder to keep a connection alive
+     * to the connection pool listeners.
+     */
+    void keepAliveNoop(boolean alive) {
+        pool.keepAliveNoop(alive);
+    }
+
     /**
      * Release a store protocol object that was being used by a folder.
      */
     void releaseFolderStoreProtocol(IMAPProtocol protocol) {
         if (protocol == null)
             return;        // should never happen
+        long start = System.nanoTime();
         protocol.removeResponseHandler(nonStoreResponseHandler);
         protocol.addResponseHandler(this);
         synchronized (pool) {
@@ -1208,6 +1333,7 @@ public class IMAPStore extends Store
 
             timeoutConnections();
         }
+        pool.released(true, true, System.nanoTime() - start);
     }
 
     /**
@@ -1276,6 +1402,7 @@ public class IMAPStore extends Store
 
                         p.removeResponseHandler(this);
                         pool.authenticatedConnections.removeElementAt(index);
+                        pool.pruned();
 
                         try {
                             p.logout();
@@ -1294,6 +1421,20 @@ public class IMAPStore extends Store
         return blksize;
     }
 
+    /**
+     * Get the size fetch requests on this Store can grow to.
+     */
+    int getMaxFetchBlockSize() {
+        return maxblksize;
+    }
+
+    /**
+     * Start the next partial fetch request before it's needed?
+     */
+    boolean getFetchReadAhead() {
+        return fetchReadAhead;
+    }
+
     /**
      * Ignore the size reported in the BODYSTRUCTURE when fetching data?
      */
@@ -1490,6 +1631,7 @@ public class IMAPStore extends Store
         }
 
         emptyConnectionPool(force);
+        unregisterPoolMBean();
 
         // to set the state and send the closed connection event
         try {
@@ -1790,6 +1932,48 @@ public class IMAPStore extends Store
         }
     }
 
+    /**
+     * Get the status of many folders at once.  The STATUS commands for
+     * all the folders are sent over a single store connection, pipelined
+     * so that they don't each require a round trip to the server.  If the
+     * server supports the LIST-STATUS extension
+     * (<A HREF="http://www.ietf.org/rfc/rfc5819.txt">RFC 5819</A>),
+     * it's used instead. <p>
+     *
+     * The items may be standard STATUS items such as "MESSAGES" or
+     * "UNSEEN", or may be server-specific items.  Folders that don't
+     * exist or can't be selected are not included in the result.
+     *
+     * @param names the full names of the folders
+     * @param items the STATUS items to fetch, or null for the
+     *              standard items
+     * @return map of folder full name to STATUS results
+     * @throws MessagingException if the server doesn't support the
+     *                            STATUS command
+     * @since JavaMail 1.6.7
+     */
+    public synchronized Map<String, Status> getStatus(String[] names,
+                                                      String[] items)
+            throws MessagingException {
+        checkConnected();
+        Map<String, Status> statuses = null;
+
+        IMAPProtocol p = null;
+        try {
+            p = getStoreProtocol();
+            statuses = p.status(names, items);
+        } catch (BadCommandException bex) {
+            throw new MessagingException("STATUS not supported", bex);
+        } catch (ConnectionException cex) {
+            throw new StoreClosedException(this, cex.getMessage());
+        } catch (ProtocolException pex) {
+            throw new MessagingException(pex.getMessage(), pex);
+        } finally {
+            releaseStoreProtocol(p);
+        }
+        return statuses;
+    }
+
     private void checkConnected() {
         assert Thread.holdsLock(this);
         if (!super.isConnected())
@@ -2114,6 +2298,10 @@ public class IMAPStore extends Store
         private long lastTimePruned;
         private int idleState = RUNNING;
         private IMAPProtocol idleProtocol;    // protocol object when IDLE
+        // listeners for the pool's activity, starting with the statistics
+        private final List<ConnectionPoolListener> listeners
+                = new CopyOnWriteArrayList<>();
+        private final ConnectionPoolStats stats;
 
         ConnectionPool(String name, MailLogger plogger, Session session) {
             lastTimePruned = System.currentTimeMillis();
@@ -2175,6 +2363,60 @@ public class IMAPStore extends Store
             if (separateStoreConnection)
                 logger.config("dedicate a store connection");
 
+            stats = new ConnectionPoolStats(this);
+            listeners.add(stats);
+        }
+
+        /*
+         * Notify the listeners of the pool's activity.
+         */
+        void borrowed(boolean store, long time) {
+            for (ConnectionPoolListener l : listeners)
+                l.connectionBorrowed(store, time);
+        }
+
+        void released(boolean store, boolean pooled, long time) {
+            for (ConnectionPoolListener l : listeners)
+                l.connectionReleased(store, pooled, time);
+        }
+
+        void created(boolean store, boolean success) {
+            for (ConnectionPoolListener l : listeners)
+                l.connectionCreated(store, success);
+        }
+
+        void storeWaited(long time) {
+            for (ConnectionPoolListener l : listeners)
+                l.storeConnectionWaited(time);
+        }
+
+        void keepAliveNoop(boolean alive) {
+            for (ConnectionPoolListener l : listeners)
+                l.keepAliveNoop(alive);
+        }
+
+        void pruned() {
+            for (ConnectionPoolListener l : listeners)
+                l.connectionPruned();
+        }
+
+        /*
+         * The current state of the pool, for ConnectionPoolStats.
+         */
+        int getPoolSize() {
+            return poolSize;
+        }
+
+        synchronized int getAvailableConnections() {
+            return authenticatedConnections.size();
+        }
+
+        synchronized int getOpenFolders() {
+            return folders != null ? folders.size() : 0;
+        }
+
+        synchronized boolean isStoreConnectionInUse() {
+            return storeConnectionInUse;
         }
     }
 }
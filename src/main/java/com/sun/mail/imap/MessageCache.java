@@ -46,12 +46,16 @@ public class MessageCache {
      */
     private IMAPMessage[] messages;
     /*
-     * A parallel array of sequence numbers for each message.  If the
-     * array pointer is null, the sequence number of a message is just
-     * its message number.  This is the common case, until a message is
-     * expunged.
+     * A Fenwick (binary indexed) tree over the message numbers, counting
+     * the messages that haven't been expunged.  The sequence number of
+     * a message is the number of unexpunged messages up to and including
+     * that message, so both seqnumOf and msgnumOf take O(log n) time no
+     * matter how many messages have been expunged.  Element 0 is unused;
+     * the tree covers the entire messages array.  If the array pointer
+     * is null, the sequence number of a message is just its message
+     * number.  This is the common case, until a message is expunged.
      */
-    private int[] seqnums;
+    private int[] seqtree;
     /*
      * The amount of the messages (and seqnum) array that is valid.
      * Might be less than the actual size of the array.
@@ -161,22 +165,11 @@ public class MessageCache {
                 logger.fine("expunge existing " + msgnum);
             msg.setExpunged(true);
         }
-        if (seqnums == null) {        // time to fill it in
-            logger.fine("create seqnums array");
-            seqnums = new int[messages.length];
-            for (int i = 1; i < msgnum; i++)
-                seqnums[i - 1] = i;
-            seqnums[msgnum - 1] = 0;
-            for (int i = msgnum + 1; i <= seqnums.length; i++)
-                seqnums[i - 1] = i - 1;
-        } else {
-            seqnums[msgnum - 1] = 0;
-            for (int i = msgnum + 1; i <= seqnums.length; i++) {
-                assert seqnums[i - 1] != 1;
-                if (seqnums[i - 1] > 0)
-                    seqnums[i - 1]--;
-            }
+        if (seqtree == null) {        // time to fill it in
+            logger.fine("create seqnums tree");
+            seqtree = newTree(null, 0, messages.length);
         }
+        update(msgnum, -1);
     }
 
     /**
@@ -198,11 +191,12 @@ public class MessageCache {
          * newnum is the index where we copy the next valid message.
          * oldnum == newnum until we encounter an expunged message.
          */
+        int[] live = liveMessages();
         int oldnum = 1;
         int newnum = 1;
         while (oldnum <= size) {
             // is message expunged?
-            if (seqnumOf(oldnum) <= 0) {
+            if (live != null && live[oldnum] == 0) {
                 IMAPMessage m = getMessage(oldnum);
                 mlist.add(m);
             } else {
@@ -217,7 +211,7 @@ public class MessageCache {
             }
             oldnum++;
         }
-        seqnums = null;
+        seqtree = null;
         shrink(newnum, oldnum);
 
         IMAPMessage[] rmsgs = new IMAPMessage[mlist.size()];
@@ -263,8 +257,9 @@ public class MessageCache {
          * expunged message, we still start scanning at message number 1
          * so that we can check whether there's any message whose
          * sequence number is different than its message number.  If there
-         * is, we can't throw away the seqnums array when we're done.
+         * is, we can't throw away the seqnums tree when we're done.
          */
+        int[] live = liveMessages();
         int oldnum = 1;
         int newnum = 1;
         int mnumi = 0;        // index into mnum
@@ -277,7 +272,7 @@ public class MessageCache {
              */
             if (mnumi < mnum.length &&
                     oldnum == mnum[mnumi] &&
-                    seqnumOf(oldnum) <= 0) {
+                    live != null && live[oldnum] == 0) {
                 IMAPMessage m = getMessage(oldnum);
                 mlist.add(m);
                 /*
@@ -294,19 +289,25 @@ public class MessageCache {
                     messages[newnum - 1] = messages[oldnum - 1];
                     if (messages[newnum - 1] != null)
                         messages[newnum - 1].setMessageNumber(newnum);
-                    if (seqnums != null)
-                        seqnums[newnum - 1] = seqnums[oldnum - 1];
+                    if (live != null)
+                        live[newnum] = live[oldnum];
                 }
-                if (seqnums != null && seqnums[newnum - 1] != newnum)
+                /*
+                 * Once a message that's still in the array has been
+                 * expunged, the following messages have sequence numbers
+                 * different than their message numbers.
+                 */
+                if (live != null && live[newnum] == 0)
                     keepSeqnums = true;
                 newnum++;
             }
             oldnum++;
         }
 
-        if (!keepSeqnums)
-            seqnums = null;
+        seqtree = null;
         shrink(newnum, oldnum);
+        if (keepSeqnums && messages != null)
+            seqtree = newTree(live, size, messages.length);
 
         IMAPMessage[] rmsgs = new IMAPMessage[mlist.size()];
         if (logger.isLoggable(Level.FINE))
@@ -316,7 +317,7 @@ public class MessageCache {
     }
 
     /**
-     * Shrink the messages and seqnums arrays.  newend is one past last
+     * Shrink the messages array.  newend is one past last
      * valid element.  oldend is one past the previous last valid element.
      */
     private void shrink(int newend, int oldend) {
@@ -325,27 +326,18 @@ public class MessageCache {
             logger.fine("size now " + size);
         if (size == 0) {    // no messages left
             messages = null;
-            seqnums = null;
         } else if (size > SLOP && size < messages.length / 2) {
             // if array shrinks by too much, reallocate it
             logger.fine("reallocate array");
             IMAPMessage[] newm = new IMAPMessage[size + SLOP];
             System.arraycopy(messages, 0, newm, 0, size);
             messages = newm;
-            if (seqnums != null) {
-                int[] news = new int[size + SLOP];
-                System.arraycopy(seqnums, 0, news, 0, size);
-                seqnums = news;
-            }
         } else {
             if (logger.isLoggable(Level.FINE))
                 logger.fine("clean " + newend + " to " + oldend);
             // clear out unused entries in array
-            for (int msgnum = newend; msgnum < oldend; msgnum++) {
+            for (int msgnum = newend; msgnum < oldend; msgnum++)
                 messages[msgnum - 1] = null;
-                if (seqnums != null)
-                    seqnums[msgnum - 1] = 0;
-            }
         }
     }
 
@@ -376,15 +368,15 @@ public class MessageCache {
             IMAPMessage[] newm = new IMAPMessage[newsize + SLOP];
             System.arraycopy(messages, 0, newm, 0, messages.length);
             messages = newm;
-            if (seqnums != null) {
-                int[] news = new int[newsize + SLOP];
-                System.arraycopy(seqnums, 0, news, 0, seqnums.length);
-                for (int i = size; i < news.length; i++)
-                    news[i] = newSeqNum++;
-                seqnums = news;
+            if (seqtree != null) {
+                /*
+                 * The new messages haven't been expunged, so the
+                 * first of them gets sequence number newSeqNum.
+                 */
+                seqtree = newTree(liveMessages(), size, messages.length);
                 if (logger.isLoggable(Level.FINE))
                     logger.fine("message " + newsize +
-                            " has sequence number " + seqnums[newsize - 1]);
+                            " has sequence number " + prefix(newsize));
             }
         } else if (newsize < size) {        // shrinking?
             // this should never happen
@@ -392,8 +384,9 @@ public class MessageCache {
                 logger.fine("shrink capacity to " + newsize);
             for (int msgnum = newsize + 1; msgnum <= size; msgnum++) {
                 messages[msgnum - 1] = null;
-                if (seqnums != null)
-                    seqnums[msgnum - 1] = -1;
+                // unused entries are always counted as unexpunged
+                if (seqtree != null && !isLive(msgnum))
+                    update(msgnum, 1);
             }
         }
         size = newsize;
@@ -406,13 +399,13 @@ public class MessageCache {
      * @return the sequence number
      */
     public int seqnumOf(int msgnum) {
-        if (seqnums == null)
+        if (seqtree == null)
             return msgnum;
         else {
+            int seqnum = isLive(msgnum) ? prefix(msgnum) : 0;
             if (logger.isLoggable(Level.FINE))
-                logger.fine("msgnum " + msgnum + " is seqnum " +
-                        seqnums[msgnum - 1]);
-            return seqnums[msgnum - 1];
+                logger.fine("msgnum " + msgnum + " is seqnum " + seqnum);
+            return seqnum;
         }
     }
 
@@ -420,19 +413,100 @@ public class MessageCache {
      * Return the message number for the given sequence number.
      */
     private int msgnumOf(int seqnum) {
-        if (seqnums == null)
+        if (seqtree == null)
             return seqnum;
         if (seqnum < 1) {        // should never happen
             if (logger.isLoggable(Level.FINE))
                 logger.fine("bad seqnum " + seqnum);
             return -1;
         }
-        for (int msgnum = seqnum; msgnum <= size; msgnum++) {
-            if (seqnums[msgnum - 1] == seqnum)
-                return msgnum;
-            if (seqnums[msgnum - 1] > seqnum)
-                break;        // message doesn't exist
+        /*
+         * Find the first message whose sequence number is seqnum,
+         * by descending the tree from the highest power of two.
+         * The message found is never an expunged message.
+         */
+        int msgnum = 0;
+        int rest = seqnum;
+        for (int bit = Integer.highestOneBit(seqtree.length - 1);
+             bit != 0; bit >>>= 1) {
+            int next = msgnum + bit;
+            if (next < seqtree.length && seqtree[next] < rest) {
+                msgnum = next;
+                rest -= seqtree[next];
+            }
+        }
+        msgnum++;
+        if (msgnum > size)
+            return -1;        // message doesn't exist
+        return msgnum;
+    }
+
+    /**
+     * Return the number of unexpunged messages up to and
+     * including the given message number.
+     */
+    private int prefix(int msgnum) {
+        int count = 0;
+        for (int i = msgnum; i > 0; i -= i & -i)
+            count += seqtree[i];
+        return count;
+    }
+
+    /**
+     * Add delta to the count for the given message number.
+     */
+    private void update(int msgnum, int delta) {
+        for (int i = msgnum; i < seqtree.length; i += i & -i)
+            seqtree[i] += delta;
+    }
+
+    /**
+     * Has the given message number not been expunged?
+     */
+    private boolean isLive(int msgnum) {
+        // the count for msgnum is the difference of two prefix sums,
+        // which share the nodes above the lowest common ancestor
+        int count = seqtree[msgnum];
+        int stop = msgnum - (msgnum & -msgnum);
+        for (int i = msgnum - 1; i > stop; i -= i & -i)
+            count -= seqtree[i];
+        return count > 0;
+    }
+
+    /**
+     * Return an array indexed by message number with 1 for each
+     * message that hasn't been expunged and 0 for each message that
+     * has been, or null if no message has been expunged.
+     * Element 0 is unused.  Takes O(n) time.
+     */
+    private int[] liveMessages() {
+        if (seqtree == null)
+            return null;
+        int[] live = seqtree.clone();
+        // undo the construction done by newTree
+        for (int i = live.length - 1; i > 0; i--) {
+            int parent = i + (i & -i);
+            if (parent < live.length)
+                live[parent] -= live[i];
+        }
+        return live;
+    }
+
+    /**
+     * Create a tree covering capacity messages, where the first
+     * count messages are described by the live array (if not null)
+     * and all the other messages are unexpunged.  Takes O(n) time.
+     */
+    private static int[] newTree(int[] live, int count, int capacity) {
+        int[] tree = new int[capacity + 1];
+        if (live != null)
+            System.arraycopy(live, 1, tree, 1, count);
+        Arrays.fill(tree, count + 1, tree.length, 1);
+        for (int i = 1; i < tree.length; i++) {
+            int parent = i + (i & -i);
+            if (parent < tree.length)
+                tree[parent] += tree[i];
         }
-        return -1;
+        return tree;
     }
 }
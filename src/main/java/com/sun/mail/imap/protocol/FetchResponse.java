@@ -201,6 +201,28 @@ public class FetchResponse extends IMAPResponse {
         } while (!isNextNonSpace(')'));
 
         items = v.toArray(new Item[v.size()]);
+
+        /*
+         * If all the items have been completely parsed into
+         * objects that don't refer to our buffer, the buffer
+         * can be reused right away.
+         */
+        if (extensionItems == null && isSelfContained())
+            release();
+    }
+
+    /**
+     * Are all the items independent of the response buffer?
+     */
+    private boolean isSelfContained() {
+        for (Item item : items) {
+            if (!(item instanceof FLAGS || item instanceof UID ||
+                    item instanceof MODSEQ || item instanceof RFC822SIZE ||
+                    item instanceof INTERNALDATE || item instanceof ENVELOPE ||
+                    item instanceof BODYSTRUCTURE))
+                return false;
+        }
+        return true;
     }
 
     /**
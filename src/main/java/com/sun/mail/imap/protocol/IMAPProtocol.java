@@ -54,6 +54,8 @@ public class IMAPProtocol extends Protocol {
 
     private static final byte[] CRLF = {(byte) '\r', (byte) '\n'};
     private static final FetchItem[] fetchItems = {};
+    // maximum number of mailboxes per pipelined or LIST-STATUS request
+    private static final int STATUS_BATCH_SIZE = 100;
     // the DONE command to break out of IDLE
     private static final byte[] DONE = {'D', 'O', 'N', 'E', '\r', '\n'};
     protected SearchSequence searchSequence;
@@ -1399,6 +1401,171 @@ public class IMAPProtocol extends Protocol {
         return status;
     }
 
+    /**
+     * STATUS Command for many mailboxes.  If the server supports
+     * LIST-STATUS (RFC 5819), the status of the mailboxes is returned
+     * by LIST commands, otherwise the STATUS commands are pipelined.
+     * Either way, the commands are sent in batches of at most
+     * STATUS_BATCH_SIZE mailboxes, to bound the size of each command
+     * and the amount of unread response data. <p>
+     *
+     * Mailboxes that don't exist or can't be selected are not included
+     * in the result.
+     *
+     * @param mboxes the mailboxes
+     * @param items  the STATUS items to request
+     * @return map of mailbox name to STATUS results
+     * @throws ProtocolException for protocol failures
+     * @see "RFC 5819"
+     * @since JavaMail 1.6.7
+     */
+    public Map<String, Status> status(String[] mboxes, String[] items)
+            throws ProtocolException {
+        if (!isREV1() && !hasCapability("IMAP4SUNVERSION"))
+            // STATUS is rev1 only, however the non-rev1 SIMS2.0
+            // does support this.
+            throw new BadCommandException("STATUS not supported");
+
+        if (items == null)
+            items = Status.standardItems;
+
+        boolean listStatus = hasCapability("LIST-STATUS");
+        List<String> listed = new ArrayList<>();
+        List<String> others = new ArrayList<>();
+        for (String mbox : mboxes) {
+            // LIST patterns can't be used for names with wildcards
+            if (listStatus && mbox.indexOf('*') < 0 && mbox.indexOf('%') < 0)
+                listed.add(mbox);
+            else
+                others.add(mbox);
+        }
+
+        Map<String, Status> statuses = new HashMap<>();
+        for (int i = 0; i < listed.size(); i += STATUS_BATCH_SIZE)
+            listStatus(listed.subList(i,
+                    Math.min(listed.size(), i + STATUS_BATCH_SIZE)),
+                    items, statuses);
+        for (int i = 0; i < others.size(); i += STATUS_BATCH_SIZE)
+            statusPipelined(others.subList(i,
+                    Math.min(others.size(), i + STATUS_BATCH_SIZE)),
+                    items, statuses);
+
+        /*
+         * Return the results under the requested names.  The server
+         * might return INBOX in a different case than requested.
+         */
+        Map<String, Status> result = new HashMap<>();
+        for (String mbox : mboxes) {
+            Status status = statuses.get(mbox);
+            if (status == null && mbox.equalsIgnoreCase("INBOX")) {
+                for (Map.Entry<String, Status> e : statuses.entrySet()) {
+                    if (e.getKey().equalsIgnoreCase("INBOX")) {
+                        status = e.getValue();
+                        break;
+                    }
+                }
+            }
+            if (status != null)
+                result.put(mbox, status);
+        }
+        return result;
+    }
+
+    /**
+     * Get the status of the given mailboxes using pipelined
+     * STATUS commands.
+     */
+    private void statusPipelined(List<String> mboxes, String[] items,
+                                 Map<String, Status> statuses)
+            throws ProtocolException {
+        int n = mboxes.size();
+        String[] cmds = new String[n];
+        Argument[] args = new Argument[n];
+        for (int i = 0; i < n; i++) {
+            cmds[i] = "STATUS";
+            args[i] = new Argument();
+            writeMailboxName(args[i], mboxes.get(i));
+            Argument itemArgs = new Argument();
+            for (String item : items)
+                itemArgs.writeAtom(item);
+            args[i].writeArgument(itemArgs);
+        }
+
+        Response[][] rr = command(cmds, args);
+        for (Response[] r : rr) {
+            Response response = r[r.length - 1];
+            // STATUS responses are matched by name, not by command
+            collectStatus(r, statuses);
+            // dispatch remaining untagged responses
+            notifyResponseHandlers(r);
+            // the mailbox just doesn't exist
+            if (response.isNO() || response.isBAD())
+                continue;
+            handleResult(response);
+        }
+    }
+
+    /**
+     * Get the status of the given mailboxes using LIST-STATUS.
+     */
+    private void listStatus(List<String> mboxes, String[] items,
+                            Map<String, Status> statuses)
+            throws ProtocolException {
+        Argument args = new Argument();
+        writeMailboxName(args, "");
+        Argument patterns = new Argument();
+        for (String mbox : mboxes)
+            writeMailboxName(patterns, mbox);
+        args.writeArgument(patterns);
+        args.writeAtom("RETURN");
+        Argument itemArgs = new Argument();
+        for (String item : items)
+            itemArgs.writeAtom(item);
+        Argument ret = new Argument();
+        ret.writeAtom("STATUS");
+        ret.writeArgument(itemArgs);
+        args.writeArgument(ret);
+
+        Response[] r = command("LIST", args);
+        Response response = r[r.length - 1];
+
+        if (response.isOK()) { // command succesful
+            collectStatus(r, statuses);
+            for (int i = 0, len = r.length; i < len; i++) {
+                if (r[i] instanceof IMAPResponse &&
+                        ((IMAPResponse) r[i]).keyEquals("LIST"))
+                    r[i] = null;
+            }
+        }
+
+        // dispatch remaining untagged responses
+        notifyResponseHandlers(r);
+        handleResult(response);
+    }
+
+    /**
+     * Collect the STATUS responses, removing them from the array.
+     */
+    private static void collectStatus(Response[] r,
+                                      Map<String, Status> statuses)
+            throws ParsingException {
+        for (int i = 0, len = r.length; i < len; i++) {
+            if (!(r[i] instanceof IMAPResponse))
+                continue;
+
+            IMAPResponse ir = (IMAPResponse) r[i];
+            if (ir.keyEquals("STATUS")) {
+                Status status = new Status(ir);
+                Status old = statuses.get(status.mbox);
+                if (old == null)
+                    statuses.put(status.mbox, status);
+                else // collect 'em all
+                    Status.add(old, status);
+                r[i] = null;
+            }
+        }
+    }
+
     /**
      * CREATE Command.
      *
@@ -1832,7 +1999,70 @@ public class IMAPProtocol extends Protocol {
 
         r = fetch(msgno, body);
         notifyResponseHandlers(r);
+        return getSectionBody(r, msgno, section);
+    }
+
+    /**
+     * Start a partial FETCH of the given BODY section, without waiting
+     * for the response.  This allows the server to send the data while
+     * the caller processes previously fetched data.  The BODY item is
+     * returned by {@link #finishFetchBody finishFetchBody}.
+     *
+     * @param msgno   the message number
+     * @param section the body section
+     * @param start   starting byte count
+     * @param size    number of bytes to fetch
+     * @param peek    peek instead of fetch?
+     * @return the tag to pass to finishFetchBody
+     * @throws ProtocolException for protocol failures
+     * @see Protocol#startCommand
+     * @since JavaMail 1.6.7
+     */
+    public String startFetchBody(int msgno, String section, int start,
+                                 int size, boolean peek) throws ProtocolException {
+        if (section == null)
+            section = "";
+        String body = (peek ? "BODY.PEEK[" : "BODY[") + section + "]<" +
+                start + "." +
+                size + ">";
+        try {
+            return startCommand("FETCH " + msgno + " (" + body + ")", null);
+        } catch (IOException ex) {
+            throw new ConnectionException(this, Response.byeResponse(ex));
+        }
+    }
+
+    /**
+     * Return the BODY item for a FETCH started by
+     * {@link #startFetchBody startFetchBody}, waiting for the FETCH
+     * to complete if necessary.  The FETCH must still be
+     * {@link Protocol#isCommandPending pending}; once another command
+     * has been sent its responses have been discarded.
+     *
+     * @param tag     the tag returned by startFetchBody
+     * @param msgno   the message number passed to startFetchBody
+     * @param section the body section
+     * @return the BODY item
+     * @throws ProtocolException for protocol failures
+     * @since JavaMail 1.6.7
+     */
+    public BODY finishFetchBody(String tag, int msgno, String section)
+            throws ProtocolException {
+        // the responses have already been passed to the response handlers
+        Response[] r = finishCommand(tag);
+        if (r == null)
+            throw new ProtocolException("no responses for FETCH " + tag);
+        if (section == null)
+            section = "";
+        return getSectionBody(r, msgno, section);
+    }
 
+    /**
+     * Return the BODY item for the given section from
+     * the responses to a FETCH command.
+     */
+    private BODY getSectionBody(Response[] r, int msgno, String section)
+            throws ProtocolException {
         Response response = r[r.length - 1];
         if (response.isOK()) {
             List<BODY> bl = FetchResponse.getItems(r, msgno, BODY.class);
@@ -2129,6 +2359,26 @@ public class IMAPProtocol extends Protocol {
             return command("FETCH " + msgSequence + " (" + what + ")", null);
     }
 
+    /**
+     * FETCH the given items for the given messages, passing each
+     * response to the handler as soon as it has been read, rather
+     * than collecting all the responses before returning.
+     *
+     * @param msgsets the messages to fetch
+     * @param what    the FETCH items to request
+     * @param handler the handler for the intermediate responses
+     * @return the final Response returned by the server
+     * @throws ProtocolException for protocol failures
+     * @see Protocol#command(String, Argument, ResponseHandler)
+     * @since JavaMail 1.6.7
+     */
+    public Response fetch(MessageSet[] msgsets, String what,
+                          ResponseHandler handler)
+            throws ProtocolException {
+        return command("FETCH " + MessageSet.toString(msgsets) +
+                " (" + what + ")", null, handler);
+    }
+
     /**
      * COPY command.
      *
@@ -21,6 +21,7 @@ import com.sun.mail.iap.ProtocolException;
 import com.sun.mail.iap.Response;
 import com.sun.mail.util.ASCIIUtility;
 
+import javax.mail.Flags;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -36,6 +37,17 @@ public class IMAPResponse extends Response {
     private String key;
     private int number;
 
+    /*
+     * Common response keys.  If the key in a response is exactly one
+     * of these, this String is used instead of creating a new one.
+     */
+    private static final String[] KEYS = {
+            "FETCH", "EXISTS", "EXPUNGE", "RECENT", "FLAGS", "SEARCH",
+            "ESEARCH", "VANISHED", "LIST", "LSUB", "STATUS", "CAPABILITY",
+            "ENABLED", "NAMESPACE", "QUOTA", "QUOTAROOT", "ACL", "MYRIGHTS",
+            "LISTRIGHTS", "ID"
+    };
+
     public IMAPResponse(Protocol c) throws IOException, ProtocolException {
         super(c);
         init();
@@ -81,14 +93,51 @@ public class IMAPResponse extends Response {
     private void init() throws IOException, ProtocolException {
         // continue parsing if this is an untagged response
         if (isUnTagged() && !isOK() && !isNO() && !isBAD() && !isBYE()) {
-            key = readAtom();
+            int end = atomEnd();
 
             // Is this response of the form "* <number> <command>"
-            try {
-                number = Integer.parseInt(key);
-                key = readAtom();
-            } catch (NumberFormatException ne) {}
+            if (isNumber(index, end)) {
+                try {
+                    number = ASCIIUtility.parseInt(buffer, index, end);
+                    index = end;
+                    end = atomEnd();
+                } catch (NumberFormatException ne) {}
+            }
+            key = readKey(end);
+        }
+    }
+
+    /**
+     * Are the bytes from start to end all digits?
+     */
+    private boolean isNumber(int start, int end) {
+        if (start >= end)
+            return false;
+        for (int i = start; i < end; i++)
+            if (buffer[i] < '0' || buffer[i] > '9')
+                return false;
+        return true;
+    }
+
+    /**
+     * Read the key, an ATOM ending at end, using one of the
+     * common keys if possible.
+     */
+    private String readKey(int end) {
+        int len = end - index;
+        for (String k : KEYS) {
+            if (k.length() != len)
+                continue;
+            int i;
+            for (i = 0; i < len; i++)
+                if (buffer[index + i] != k.charAt(i))
+                    break;
+            if (i == len) {
+                index = end;
+                return k;
+            }
         }
+        return readAtom();
     }
 
     /**
@@ -127,6 +176,75 @@ public class IMAPResponse extends Response {
             return null;
     }
 
+    /**
+     * Read a list of flags, adding them to the given Flags object.
+     * The system flags are recognized directly from the bytes of
+     * the response; a String is only created for user flags.
+     * As with {@link #readSimpleList readSimpleList}, we just look
+     * for items separated by spaces and terminated by a right paren.
+     *
+     * @param flags the Flags object
+     */
+    void readFlags(Flags flags) {
+        skipSpaces();
+
+        if (index >= size || buffer[index] != '(') // not what we expected
+            return;
+        index++; // skip '('
+
+        int start = index;
+        for (; index < size; index++) {
+            byte b = buffer[index];
+            if (b == ' ' || b == ')') { // got one item
+                if (index > start)
+                    addFlag(flags, start, index);
+                start = index + 1;
+                if (b == ')')
+                    break;
+            }
+        }
+        index++; // skip ')'
+    }
+
+    /**
+     * Add the flag from start to end to the Flags object.
+     */
+    private void addFlag(Flags flags, int start, int end) {
+        int len = end - start;
+        if (len >= 2 && buffer[start] == '\\') {
+            switch (Character.toUpperCase((char) buffer[start + 1])) {
+                case 'S': // \Seen
+                    flags.add(Flags.Flag.SEEN);
+                    return;
+                case 'R': // \Recent
+                    flags.add(Flags.Flag.RECENT);
+                    return;
+                case 'D':
+                    if (len >= 3) {
+                        byte c = buffer[start + 2];
+                        if (c == 'e' || c == 'E') // \Deleted
+                            flags.add(Flags.Flag.DELETED);
+                        else if (c == 'r' || c == 'R') // \Draft
+                            flags.add(Flags.Flag.DRAFT);
+                        return;
+                    }
+                    break;    // unknown, treat it as a user flag
+                case 'A': // \Answered
+                    flags.add(Flags.Flag.ANSWERED);
+                    return;
+                case 'F': // \Flagged
+                    flags.add(Flags.Flag.FLAGGED);
+                    return;
+                case '*': // \*
+                    flags.add(Flags.Flag.USER);
+                    return;
+                default:
+                    break;    // unknown, treat it as a user flag
+            }
+        }
+        flags.add(ASCIIUtility.toString(buffer, start, end));
+    }
+
     public String getKey() {
         return key;
     }
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.smtp;
+
+import com.sun.mail.util.PropUtil;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.*;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * A cache of the encoded form of messages, as written by the
+ * <code>writeTo</code> method, so that a message sent in several
+ * transactions, or over several connections, is only encoded twice.
+ * The first time a message is sent only its headers are remembered;
+ * the encoded form is kept when it's sent again with the same headers.
+ * Small messages are kept in memory, larger messages are written to
+ * a temporary file. <p>
+ *
+ * A cached message is only used if the message's headers haven't
+ * changed since it was cached.  Since the <code>saveChanges</code>
+ * method sets a new Message-ID header, saving changes to the message
+ * invalidates the cached data.  Changes to the content of the message,
+ * including the headers of its body parts, aren't detected unless
+ * <code>saveChanges</code> is called. <p>
+ *
+ * The temporary file is deleted when the cached data is replaced, or
+ * when the cache is next used after the message has been garbage
+ * collected.
+ *
+ * @since JavaMail 1.6.7
+ */
+final class EncodedMessageCache {
+    // caches shared by all transports of a Session
+    private static final Map<Session, Map<String, EncodedMessageCache>>
+            sessionCaches = new WeakHashMap<>();
+
+    private final int threshold;    // larger messages go in a file
+    private final File dir;         // directory for the files, or null
+    private final Map<MimeMessage, Entry> entries = new WeakHashMap<>();
+    // the entries with files, to delete when their message is collected
+    private final ReferenceQueue<MimeMessage> collected =
+            new ReferenceQueue<>();
+    private final Set<FileRef> fileRefs = new HashSet<>();
+
+    EncodedMessageCache(int threshold, File dir) {
+        this.threshold = threshold;
+        this.dir = dir;
+    }
+
+    /**
+     * Return the cache shared by all transports of the Session
+     * for the named protocol.
+     */
+    static EncodedMessageCache getSessionCache(Session session, String name) {
+        synchronized (sessionCaches) {
+            Map<String, EncodedMessageCache> caches =
+                    sessionCaches.get(session);
+            if (caches == null) {
+                caches = new HashMap<>();
+                sessionCaches.put(session, caches);
+            }
+            EncodedMessageCache cache = caches.get(name);
+            if (cache == null) {
+                String dir = session.getProperty(
+                        "mail." + name + ".messagecache.dir");
+                cache = new EncodedMessageCache(PropUtil.getIntProperty(
+                        session.getProperties(),
+                        "mail." + name + ".messagecache.threshold",
+                        1024 * 1024),
+                        dir != null ? new File(dir) : null);
+                caches.put(name, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Write the message to the stream, using the cached data if
+     * it's still valid.  The data is cached if the message was
+     * sent before with the same headers.
+     */
+    void writeTo(MimeMessage msg, OutputStream os, String[] ignoreList)
+            throws IOException, MessagingException {
+        Entry e;
+        synchronized (this) {
+            deleteCollected();
+            e = entries.get(msg);
+            if (e != null && e.isCached())
+                e.readers++;    // don't delete the file while we read it
+        }
+        boolean seen = e != null &&
+                Arrays.equals(e.headers, headerLines(msg, ignoreList));
+        if (e != null && e.isCached()) {
+            try {
+                if (seen) {
+                    e.writeTo(os);
+                    return;
+                }
+            } finally {
+                release(e);
+            }
+        }
+
+        if (!seen) {
+            // just remember the headers, in case it's sent again
+            msg.writeTo(os, ignoreList);
+            // writeTo might have saved changes, updating the headers
+            put(msg, new Entry(headerLines(msg, ignoreList), null, 0, null));
+            return;
+        }
+
+        CacheOutputStream cos = new CacheOutputStream(os);
+        try {
+            msg.writeTo(cos, ignoreList);
+            e = cos.toEntry(headerLines(msg, ignoreList));
+        } finally {
+            cos.discard();    // does nothing if the entry was created
+        }
+        put(msg, e);
+    }
+
+    private synchronized void put(MimeMessage msg, Entry e) {
+        Entry old = entries.put(msg, e);
+        if (old != null && old != e) {
+            if (old.ref != null) {
+                fileRefs.remove(old.ref);
+                old.ref.clear();
+            }
+            old.delete();
+        }
+        if (e.file != null) {
+            e.ref = new FileRef(msg, e, collected);
+            fileRefs.add(e.ref);
+        }
+    }
+
+    private synchronized void release(Entry e) {
+        if (--e.readers == 0 && e.deleted)
+            e.delete();
+    }
+
+    /**
+     * Delete the files of messages that have been garbage collected.
+     */
+    private void deleteCollected() {
+        assert Thread.holdsLock(this);
+        FileRef r;
+        while ((r = (FileRef) collected.poll()) != null) {
+            fileRefs.remove(r);
+            r.entry.delete();
+        }
+    }
+
+    private static String[] headerLines(MimeMessage msg, String[] ignoreList)
+            throws MessagingException {
+        List<String> lines = new ArrayList<>();
+        Enumeration<String> e = msg.getNonMatchingHeaderLines(ignoreList);
+        while (e.hasMoreElements())
+            lines.add(e.nextElement());
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * The cached data for a message, or just its headers if
+     * it's only been sent once.  The fields used to manage the
+     * file are protected by the cache's lock.
+     */
+    private static final class Entry {
+        final String[] headers;
+        final byte[] data;
+        final int count;
+        final File file;
+        FileRef ref;        // to delete the file if the message is collected
+        int readers;        // number of threads reading the file
+        boolean deleted;    // delete the file when there are no readers
+
+        Entry(String[] headers, byte[] data, int count, File file) {
+            this.headers = headers;
+            this.data = data;
+            this.count = count;
+            this.file = file;
+        }
+
+        boolean isCached() {
+            return data != null || file != null;
+        }
+
+        void writeTo(OutputStream os) throws IOException {
+            if (file == null) {
+                os.write(data, 0, count);
+                return;
+            }
+            try (InputStream is = new FileInputStream(file)) {
+                byte[] buf = new byte[8192];
+                int len;
+                while ((len = is.read(buf)) > 0)
+                    os.write(buf, 0, len);
+            }
+        }
+
+        void delete() {
+            deleted = true;
+            if (file != null && readers == 0)
+                file.delete();
+        }
+    }
+
+    /**
+     * Refers to a message whose data is cached in a file,
+     * so the file can be deleted when the message is collected.
+     */
+    private static final class FileRef extends WeakReference<MimeMessage> {
+        final Entry entry;
+
+        FileRef(MimeMessage msg, Entry entry,
+                ReferenceQueue<MimeMessage> q) {
+            super(msg, q);
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Writes the data through to the underlying stream,
+     * keeping a copy of it.
+     */
+    private final class CacheOutputStream extends FilterOutputStream {
+        private byte[] buf = new byte[8192];
+        private int count;
+        private File file;
+        private OutputStream fos;
+        private boolean done;
+
+        CacheOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (fos == null && count < buf.length && count < threshold)
+                buf[count++] = (byte) b;
+            else
+                keep(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            keep(b, off, len);
+        }
+
+        private void keep(byte[] b, int off, int len) throws IOException {
+            if (fos != null) {
+                fos.write(b, off, len);
+                return;
+            }
+            if (count + len > threshold) {
+                file = File.createTempFile("javamail", ".eml", dir);
+                fos = new BufferedOutputStream(new FileOutputStream(file));
+                fos.write(buf, 0, count);
+                fos.write(b, off, len);
+                buf = null;
+                return;
+            }
+            if (count + len > buf.length)
+                buf = Arrays.copyOf(buf,
+                        Math.min(Math.max(buf.length * 2, count + len),
+                                Math.max(threshold, count + len)));
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        Entry toEntry(String[] headers) throws IOException {
+            if (fos != null)
+                fos.close();
+            done = true;
+            return new Entry(headers, buf, count, file);
+        }
+
+        void discard() {
+            if (done)
+                return;
+            try {
+                if (fos != null)
+                    fos.close();
+            } catch (IOException ex) {
+                // ignore it
+            }
+            if (file != null)
+                file.delete();
+        }
+    }
+}
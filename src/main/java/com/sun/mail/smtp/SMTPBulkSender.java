@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.smtp;
+
+import com.sun.mail.util.MailLogger;
+
+import javax.mail.*;
+import javax.mail.event.TransportListener;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+
+/**
+ * SMTPBulkSender sends a large number of messages to one SMTP server
+ * over several connections in parallel.  Each connection is owned by
+ * a task run by the Executor, which takes messages from a bounded queue
+ * and sends them one at a time.  Since each connection sends messages
+ * independently, throughput grows with the number of connections, up
+ * to the limits of the server.
+ * <blockquote><pre>
+ * 	ExecutorService es = Executors.newCachedThreadPool();
+ * 	SMTPBulkSender bs = new SMTPBulkSender(session, "smtp", es, 8, 1000);
+ * 	bs.connect(host, -1, user, password);
+ * 	for (MimeMessage msg : messages)
+ * 	    bs.submit(msg, msg.getAllRecipients());	// waits if queue is full
+ * 	bs.close();	// waits for all the messages to be sent
+ * </pre></blockquote>
+ * The {@link #submit submit} method waits while the queue is full,
+ * so a caller producing messages faster than they can be sent is
+ * slowed down to the rate they're sent.  The result of sending each
+ * message is reported by the returned Future, and to any
+ * TransportListeners.  A failure to send one message doesn't stop the
+ * other messages from being sent.  If the connection fails, it's
+ * reconnected before the next message is sent.  Temporary failures,
+ * for which the message may be sent again later, can be recognized
+ * using the {@link #isTransient isTransient} method. <p>
+ *
+ * As with {@link javax.mail.Transport#sendMessage Transport.sendMessage},
+ * the caller should call the <code>saveChanges</code> method of each
+ * message before submitting it, and must not change a message while
+ * it's being sent. <p>
+ *
+ * NOTE: The SMTPBulkSender, and all APIs related to it, should
+ * be considered <strong>EXPERIMENTAL</strong>.  They may be changed in the
+ * future in ways that are incompatible with applications using the
+ * current APIs.
+ *
+ * @since JavaMail 1.6.7
+ */
+public class SMTPBulkSender {
+    private final Session session;
+    private final String protocol;
+    private final Executor es;
+    private final int connections;
+    private final BlockingQueue<Task> queue;
+    private final List<TransportListener> listeners =
+            new CopyOnWriteArrayList<>();
+    private final MailLogger logger;
+    private CountDownLatch done;    // counts running senders
+    private boolean closed;
+
+    // tells a sender to stop
+    private static final Task STOP = new Task(null, null);
+
+    /**
+     * Create an SMTPBulkSender.  Connections are made using transports
+     * for the named protocol, which must be an SMTPTransport protocol,
+     * such as "smtp" or "smtps".
+     *
+     * @param session     the Session
+     * @param protocol    the transport protocol
+     * @param es          the Executor used to run the senders
+     * @param connections the number of connections to use
+     * @param queueSize   the number of messages that may be waiting
+     *                    to be sent
+     */
+    public SMTPBulkSender(Session session, String protocol, Executor es,
+                          int connections, int queueSize) {
+        if (connections <= 0 || queueSize <= 0)
+            throw new IllegalArgumentException(
+                    "connections and queueSize must be positive");
+        this.session = session;
+        this.protocol = protocol;
+        this.es = es;
+        this.connections = connections;
+        queue = new ArrayBlockingQueue<>(queueSize);
+        logger = new MailLogger(this.getClass(), "DEBUG SMTP",
+                session.getDebug(), session.getDebugOut());
+    }
+
+    /**
+     * Add a listener for the TransportEvents of all the connections.
+     * Listeners must be added before connecting.
+     *
+     * @param l the TransportListener
+     */
+    public void addTransportListener(TransportListener l) {
+        listeners.add(l);
+    }
+
+    /**
+     * Remove a listener for TransportEvents.
+     *
+     * @param l the TransportListener
+     */
+    public void removeTransportListener(TransportListener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Start the senders, each of which connects to the server.
+     * The arguments are as for
+     * {@link javax.mail.Service#connect(String, int, String, String)
+     * Service.connect}.  A sender that fails to connect fails the
+     * message it was going to send, and tries again for the next one.
+     *
+     * @param host     the host to connect to
+     * @param port     the port to connect to, or -1 for the default
+     * @param user     the user name
+     * @param password the user's password
+     * @throws MessagingException for a failure to create a transport
+     * @throws IllegalStateException if already connected
+     */
+    public synchronized void connect(String host, int port,
+                                     String user, String password)
+            throws MessagingException {
+        if (done != null)
+            throw new IllegalStateException("already connected");
+        if (closed)
+            throw new IllegalStateException("closed");
+        done = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            final Sender s = new Sender(session.getTransport(protocol),
+                    host, port, user, password);
+            es.execute(new Runnable() {
+                @Override
+                public void run() {
+                    s.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * Queue the message to be sent to the addresses, waiting
+     * while the queue is full.
+     *
+     * @param msg       the message to send
+     * @param addresses the addresses to send the message to
+     * @return a Future that returns the message when it's sent,
+     * or throws the exception that prevented it from being sent
+     * @throws MessagingException if interrupted while waiting
+     * @throws IllegalStateException if not connected, or closed
+     */
+    public Future<Message> submit(Message msg, Address[] addresses)
+            throws MessagingException {
+        Task t = new Task(msg, addresses);
+        try {
+            /*
+             * Queue the task while holding the lock, so it can't be
+             * queued after close has queued the STOP tasks, or after
+             * the last sender has stopped.
+             */
+            synchronized (this) {
+                for (; ; ) {
+                    if (done == null || closed || done.getCount() == 0)
+                        throw new IllegalStateException("not connected");
+                    if (queue.offer(t))
+                        break;
+                    wait();    // for a sender to take a task
+                }
+            }
+        } catch (InterruptedException ex) {
+            // restore the interrupted state, which callers might depend on
+            Thread.currentThread().interrupt();
+            throw new MessagingException(
+                    "Interrupted waiting to queue message", ex);
+        }
+        return t;
+    }
+
+    /**
+     * Send the messages that have been queued, then close all the
+     * connections.  Waits until the connections are closed.
+     *
+     * @throws MessagingException if interrupted while waiting
+     */
+    public void close() throws MessagingException {
+        CountDownLatch d;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            d = done;
+            notifyAll();    // fail waiting submits
+        }
+        if (d == null)
+            return;
+        try {
+            for (int i = 0; i < connections; i++) {
+                // the senders might have stopped, leaving the queue full
+                while (!queue.offer(STOP, 1, TimeUnit.SECONDS))
+                    if (d.getCount() == 0)
+                        return;
+            }
+            d.await();
+        } catch (InterruptedException ex) {
+            // restore the interrupted state, which callers might depend on
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted waiting for close", ex);
+        }
+    }
+
+    /**
+     * Is the failure to send a message temporary?  Returns true
+     * if the server rejected the message with a 4xx response code,
+     * so the message may be sent again later.
+     *
+     * @param ex the exception from sending a message
+     * @return true if the failure is temporary
+     */
+    public static boolean isTransient(Throwable ex) {
+        if (ex instanceof ExecutionException)
+            ex = ex.getCause();
+        if (!(ex instanceof SMTPSendFailedException))
+            return false;
+        int rc = ((SMTPSendFailedException) ex).getReturnCode();
+        return rc >= 400 && rc < 500;
+    }
+
+    /**
+     * A message waiting to be sent, and its result.
+     */
+    private static final class Task extends FutureTask<Message> {
+        final Message msg;
+        final Address[] addresses;
+
+        Task(Message msg, Address[] addresses) {
+            super(new Callable<Message>() {
+                @Override
+                public Message call() {
+                    throw new IllegalStateException();    // never called
+                }
+            });
+            this.msg = msg;
+            this.addresses = addresses;
+        }
+
+        void succeeded() {
+            set(msg);
+        }
+
+        void failed(Exception ex) {
+            setException(ex);
+        }
+    }
+
+    /**
+     * Sends messages from the queue over one connection.
+     */
+    private class Sender {
+        private final Transport transport;
+        private final String host;
+        private final int port;
+        private final String user;
+        private final String password;
+        private boolean connected;
+
+        Sender(Transport transport, String host, int port,
+               String user, String password) {
+            this.transport = transport;
+            this.host = host;
+            this.port = port;
+            this.user = user;
+            this.password = password;
+            for (TransportListener l : listeners)
+                transport.addTransportListener(l);
+        }
+
+        void run() {
+            try {
+                Task t;
+                while ((t = take()) != STOP) {
+                    if (!t.isCancelled())
+                        send(t);
+                }
+            } catch (InterruptedException ex) {
+                logger.log(Level.FINE, "SMTPBulkSender interrupted", ex);
+            } finally {
+                try {
+                    transport.close();
+                } catch (MessagingException mex) {
+                    logger.log(Level.FINE, "SMTPBulkSender close failed", mex);
+                }
+                synchronized (SMTPBulkSender.this) {
+                    done.countDown();
+                    if (done.getCount() == 0) {
+                        // fail the messages no sender will send
+                        MessagingException mex = new MessagingException(
+                                "SMTPBulkSender stopped");
+                        for (Task t; (t = queue.poll()) != null; )
+                            if (t != STOP)
+                                t.failed(mex);
+                    }
+                    SMTPBulkSender.this.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Take the next task from the queue, letting submits
+         * waiting for room in the queue know there's room.
+         */
+        private Task take() throws InterruptedException {
+            Task t = queue.take();
+            synchronized (SMTPBulkSender.this) {
+                SMTPBulkSender.this.notifyAll();
+            }
+            return t;
+        }
+
+        private void send(Task t) {
+            try {
+                if (!connected) {
+                    transport.connect(host, port, user, password);
+                    connected = true;
+                }
+                transport.sendMessage(t.msg, t.addresses);
+                t.succeeded();
+            } catch (MessagingException | RuntimeException ex) {
+                logger.log(Level.FINE, "SMTPBulkSender send failed", ex);
+                t.failed(ex);
+                /*
+                 * Only check the connection after a failure, so sending
+                 * doesn't cost an extra round trip per message.
+                 * isConnected closes the connection if it's not usable.
+                 */
+                if (connected && !transport.isConnected())
+                    connected = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.smtp;
+
+import com.sun.mail.util.LineInputStream;
+import com.sun.mail.util.PropUtil;
+import com.sun.mail.util.TraceInputStream;
+import com.sun.mail.util.TraceOutputStream;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A pool of connections to SMTP servers, shared by SMTPTransport
+ * objects.  A transport that uses a pool takes an idle connection
+ * from the pool when it's connected, skipping the TCP, TLS, EHLO,
+ * and AUTH exchanges, and returns the connection to the pool when
+ * it's closed instead of sending the QUIT command.  Connections are
+ * pooled separately for each protocol, host, port, user name, and
+ * password. <p>
+ *
+ * The pool limits the number of connections to each server, for each
+ * user.  When all the connections are in use, connecting a transport
+ * waits for another transport to be closed.  Before an idle connection
+ * is reused it's checked with the NOOP command, or the RSET command if
+ * <code>mail.smtp.userset</code> is set, applying the
+ * <code>mail.smtp.noop.strict</code> rules to the response.  A connection
+ * that fails the check is closed and a new connection is made.  Connections
+ * that have been idle longer than the pool's timeout are closed, and a
+ * connection that has been used to send the maximum number of messages
+ * is closed rather than returned to the pool. <p>
+ *
+ * A pool may be used directly by setting it on each transport before
+ * the transport is connected:
+ * <blockquote><pre>
+ * 	SMTPConnectionPool pool = new SMTPConnectionPool(4, 60000, 100);
+ * 	...
+ * 	SMTPTransport t = (SMTPTransport)session.getTransport("smtp");
+ * 	t.setConnectionPool(pool);
+ * 	t.connect(host, user, password);
+ * 	try {
+ * 	    t.sendMessage(msg, msg.getAllRecipients());
+ * 	} finally {
+ * 	    t.close();	// returns the connection to the pool
+ * 	}
+ * </pre></blockquote>
+ * If the <code>mail.smtp.connectionpool.enable</code> property is set,
+ * all transports created by the Session, including the transports used
+ * by the static {@link javax.mail.Transport#send Transport.send} methods,
+ * share a pool configured by the <code>mail.smtp.connectionpoolsize</code>,
+ * <code>mail.smtp.connectionpooltimeout</code>,
+ * <code>mail.smtp.connectionpool.maxmessages</code>, and
+ * <code>mail.smtp.connectionpool.waittimeout</code> properties. <p>
+ *
+ * NOTE: The SMTPConnectionPool, and all APIs related to it, should
+ * be considered <strong>EXPERIMENTAL</strong>.  They may be changed in the
+ * future in ways that are incompatible with applications using the
+ * current APIs.
+ *
+ * @see SMTPTransport#setConnectionPool
+ * @since JavaMail 1.6.7
+ */
+public class SMTPConnectionPool {
+    private static final byte[] QUIT =
+            "QUIT\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    // pools shared by all transports of a Session
+    private static final Map<Session, Map<String, SMTPConnectionPool>>
+            sessionPools = new WeakHashMap<>();
+
+    private final int size;
+    private final long timeout;
+    private final int maxMessages;
+    private long waitTimeout = 60000;
+    private final Map<Key, Server> servers = new HashMap<>();
+    private boolean closed;
+
+    /**
+     * Create a connection pool.
+     *
+     * @param size        maximum number of connections to each server
+     *                    for each user
+     * @param timeout     close connections idle for longer than this
+     *                    many milliseconds, or 0 for no limit
+     * @param maxMessages close connections used to send this many
+     *                    messages, or 0 for no limit
+     */
+    public SMTPConnectionPool(int size, long timeout, int maxMessages) {
+        if (size <= 0)
+            throw new IllegalArgumentException("size must be positive");
+        this.size = size;
+        this.timeout = timeout;
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * Return the pool shared by all transports of the Session
+     * for the named protocol.
+     */
+    static SMTPConnectionPool getSessionPool(Session session, String name) {
+        synchronized (sessionPools) {
+            Map<String, SMTPConnectionPool> pools = sessionPools.get(session);
+            if (pools == null) {
+                pools = new HashMap<>();
+                sessionPools.put(session, pools);
+            }
+            SMTPConnectionPool pool = pools.get(name);
+            if (pool == null) {
+                Properties props = session.getProperties();
+                pool = new SMTPConnectionPool(
+                        Math.max(1, PropUtil.getIntProperty(props,
+                                "mail." + name + ".connectionpoolsize", 4)),
+                        PropUtil.getIntProperty(props,
+                                "mail." + name + ".connectionpooltimeout",
+                                45000),
+                        PropUtil.getIntProperty(props,
+                                "mail." + name + ".connectionpool.maxmessages",
+                                0));
+                pool.setWaitTimeout(PropUtil.getIntProperty(props,
+                        "mail." + name + ".connectionpool.waittimeout", 60000));
+                pools.put(name, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Return the maximum number of connections to each server
+     * for each user.
+     *
+     * @return the pool size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Return the number of milliseconds after which an idle
+     * connection is closed.
+     *
+     * @return the idle timeout, or 0 for no limit
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Return the number of messages after which a connection is closed.
+     *
+     * @return the message limit, or 0 for no limit
+     */
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    /**
+     * Set the maximum number of milliseconds to wait for a connection
+     * when all the connections to the server are in use.  If no connection
+     * becomes available in time, connecting the transport fails.
+     * The default is 60000 (60 seconds).
+     *
+     * @param waitTimeout the wait timeout, or 0 to wait forever
+     */
+    public synchronized void setWaitTimeout(long waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * Return the maximum number of milliseconds to wait for a connection
+     * when all the connections to the server are in use.
+     *
+     * @return the wait timeout, or 0 to wait forever
+     */
+    public synchronized long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    /**
+     * Return the number of connections in use by transports.
+     *
+     * @return the number of active connections
+     */
+    public synchronized int getActiveCount() {
+        int n = 0;
+        for (Server s : servers.values())
+            n += s.total - s.idle.size();
+        return n;
+    }
+
+    /**
+     * Return the number of idle connections in the pool.
+     * Connections that have timed out are closed first.
+     *
+     * @return the number of idle connections
+     */
+    public int getIdleCount() {
+        List<Connection> expired;
+        int n = 0;
+        synchronized (this) {
+            expired = prune();
+            for (Server s : servers.values())
+                n += s.idle.size();
+        }
+        closeAll(expired);
+        return n;
+    }
+
+    /**
+     * Close all idle connections.  Connections in use are closed when
+     * their transport is closed, and new connections aren't pooled.
+     */
+    public void close() {
+        List<Connection> idle = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Server s : servers.values()) {
+                s.total -= s.idle.size();
+                idle.addAll(s.idle);
+                s.idle.clear();
+            }
+            notifyAll();
+        }
+        closeAll(idle);
+    }
+
+    /**
+     * Take a connection to the server from the pool, waiting up to
+     * the wait timeout if all the connections are in use.  If null is returned,
+     * the caller may make a new connection, and must return it
+     * with {@link #release release} or {@link #discard discard}.
+     */
+    Connection take(Key key) throws MessagingException {
+        List<Connection> expired = null;
+        try {
+            synchronized (this) {
+                expired = prune();
+                Server s = servers.get(key);
+                if (s == null) {
+                    s = new Server();
+                    servers.put(key, s);
+                }
+                try {
+                    long end = System.currentTimeMillis() + waitTimeout;
+                    while (s.idle.isEmpty() && s.total >= size) {
+                        if (waitTimeout <= 0) {
+                            wait();
+                            continue;
+                        }
+                        long wait = end - System.currentTimeMillis();
+                        if (wait <= 0)
+                            throw new MessagingException(
+                                    "Timed out waiting for a pooled connection");
+                        wait(wait);
+                    }
+                } catch (InterruptedException ex) {
+                    // restore the interrupted state, which callers might depend on
+                    Thread.currentThread().interrupt();
+                    throw new MessagingException(
+                            "Interrupted waiting for connection", ex);
+                }
+                if (s.idle.isEmpty()) {
+                    s.total++;
+                    return null;
+                }
+                return s.idle.pollFirst();
+            }
+        } finally {
+            if (expired != null)
+                closeAll(expired);
+        }
+    }
+
+    /**
+     * Can a connection used to send this many messages be reused?
+     */
+    boolean isReusable(int messages) {
+        return maxMessages <= 0 || messages < maxMessages;
+    }
+
+    /**
+     * Return the connection to the pool.
+     */
+    void release(Connection c) {
+        synchronized (this) {
+            if (!closed && isReusable(c.messages)) {
+                c.lastUsed = System.currentTimeMillis();
+                servers.get(c.key).idle.addFirst(c);
+                notifyAll();
+                return;
+            }
+            discard(c.key);
+        }
+        c.close();
+    }
+
+    /**
+     * A connection taken from the pool, or made after calling
+     * {@link #take take}, has been closed.
+     */
+    synchronized void discard(Key key) {
+        Server s = servers.get(key);
+        if (s != null && s.total > 0) {
+            s.total--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Remove the connections that have been idle too long,
+     * returning them to be closed without holding the lock.
+     */
+    private List<Connection> prune() {
+        if (timeout <= 0)
+            return Collections.emptyList();
+        List<Connection> expired = null;
+        long now = System.currentTimeMillis();
+        for (Server s : servers.values()) {
+            // the least recently used connections are at the end
+            Connection c;
+            while ((c = s.idle.peekLast()) != null &&
+                    now - c.lastUsed > timeout) {
+                s.idle.pollLast();
+                s.total--;
+                if (expired == null)
+                    expired = new ArrayList<>();
+                expired.add(c);
+            }
+        }
+        if (expired == null)
+            return Collections.emptyList();
+        notifyAll();
+        return expired;
+    }
+
+    private static void closeAll(List<Connection> conns) {
+        for (Connection c : conns)
+            c.close();
+    }
+
+    /**
+     * The connections to one server for one user.
+     */
+    private static final class Server {
+        final Deque<Connection> idle = new ArrayDeque<>();
+        int total;        // idle and in use
+    }
+
+    /**
+     * Identifies the server and user of a connection.
+     */
+    static final class Key {
+        private final String name;
+        private final String host;
+        private final int port;
+        private final String user;
+        private final String password;
+
+        Key(String name, String host, int port, String user, String password) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+            this.user = user;
+            this.password = password;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key k = (Key) obj;
+            return name.equals(k.name) &&
+                    host.equalsIgnoreCase(k.host) &&
+                    port == k.port &&
+                    Objects.equals(user, k.user) &&
+                    Objects.equals(password, k.password);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() +
+                    host.toLowerCase(Locale.ENGLISH).hashCode() + port +
+                    Objects.hashCode(user);
+        }
+    }
+
+    /**
+     * The state of an idle connection, moved between the pool
+     * and the SMTPTransport using it.
+     */
+    static final class Connection {
+        final Key key;
+        Socket socket;
+        TraceInputStream traceInput;
+        TraceOutputStream traceOutput;
+        BufferedInputStream input;
+        LineInputStream lineInput;
+        OutputStream output;
+        Hashtable<String, String> extMap;
+        int messages;        // messages sent using the connection
+        long lastUsed;
+        SMTPRelays.Relay relay;  // relay connected to, if any
+        SMTPRelays relays;       // the relays relay is one of
+
+        Connection(Key key) {
+            this.key = key;
+        }
+
+        /**
+         * Send the QUIT command, without waiting for the response,
+         * and close the socket.
+         */
+        void close() {
+            try {
+                output.write(QUIT);
+                output.flush();
+            } catch (IOException ex) {
+                // ignore it, we're closing the connection anyway
+            }
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // ignore it
+            }
+        }
+    }
+}
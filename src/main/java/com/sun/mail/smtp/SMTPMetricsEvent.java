@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.smtp;
+
+import javax.mail.Message;
+import javax.mail.event.MailEvent;
+
+/**
+ * This class models SMTP metrics events, reporting the time taken by
+ * one phase of the SMTP protocol.  The source of the event is the
+ * SMTPTransport. <p>
+ *
+ * The CONNECT, STARTTLS, EHLO, and AUTH phases are reported when a
+ * connection is made; a connection reused from an
+ * {@link SMTPConnectionPool SMTPConnectionPool} reports none of them.
+ * The MAIL, RCPT, DATA, and REPLY phases are reported for each message
+ * sent.  If the server supports PIPELINING, the response to the MAIL
+ * command is read, and counted, as part of the RCPT phase.
+ *
+ * @see SMTPMetricsListener
+ * @since JavaMail 1.6.7
+ */
+public class SMTPMetricsEvent extends MailEvent {
+
+    /**
+     * Connecting to the server and reading its greeting.
+     * With SSL, includes the TLS handshake.
+     */
+    public static final int CONNECT = 1;
+    /** The STARTTLS command and the TLS handshake. */
+    public static final int STARTTLS = 2;
+    /** The EHLO or HELO command. */
+    public static final int EHLO = 3;
+    /** Authenticating to the server. */
+    public static final int AUTH = 4;
+    /** The MAIL FROM command. */
+    public static final int MAIL = 5;
+    /** The RCPT TO commands. */
+    public static final int RCPT = 6;
+    /**
+     * Encoding the message and writing it to the server,
+     * including the DATA command.
+     */
+    public static final int DATA = 7;
+    /**
+     * Ending the message data and waiting for the server
+     * to accept the message.
+     */
+    public static final int REPLY = 8;
+
+    private static final long serialVersionUID = 3962153604451738124L;
+
+    private final int phase;
+    private final long duration;
+    private final long bytes;
+    private final int returnCode;
+    private final transient Message msg;
+
+    /**
+     * Construct an SMTPMetricsEvent.
+     *
+     * @param transport  the transport
+     * @param phase      the protocol phase
+     * @param duration   the time the phase took, in nanoseconds
+     * @param bytes      the number of bytes of message data written
+     * @param returnCode the return code of the server's last response,
+     *                   or -1 if none
+     * @param msg        the message being sent, or null
+     */
+    public SMTPMetricsEvent(SMTPTransport transport, int phase, long duration,
+                            long bytes, int returnCode, Message msg) {
+        super(transport);
+        this.phase = phase;
+        this.duration = duration;
+        this.bytes = bytes;
+        this.returnCode = returnCode;
+        this.msg = msg;
+    }
+
+    /**
+     * Return the protocol phase, one of the constants defined
+     * by this class.
+     *
+     * @return the phase
+     */
+    public int getPhase() {
+        return phase;
+    }
+
+    /**
+     * Return the time the phase took, in nanoseconds.
+     *
+     * @return the duration
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Return the number of bytes of message data written during the
+     * phase.  Only the DATA phase writes message data; for the other
+     * phases this is zero.
+     *
+     * @return the number of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Return the return code of the server's last response in the
+     * phase, or -1 if the phase didn't read a response.
+     *
+     * @return the return code
+     */
+    public int getReturnCode() {
+        return returnCode;
+    }
+
+    /**
+     * Return the message being sent, or null for the phases
+     * of making a connection.
+     *
+     * @return the message
+     */
+    public Message getMessage() {
+        return msg;
+    }
+
+    /**
+     * Invokes the SMTPMetricsListener.
+     */
+    @Override
+    public void dispatch(Object listener) {
+        ((SMTPMetricsListener) listener).phaseCompleted(this);
+    }
+}
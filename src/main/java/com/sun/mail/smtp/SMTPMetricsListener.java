@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.smtp;
+
+/**
+ * This is the Listener interface for SMTP metrics events, which report
+ * how long each phase of the SMTP protocol took. <p>
+ *
+ * Unlike other mail events, metrics events are delivered synchronously,
+ * by the thread using the transport, as soon as each phase completes,
+ * so listeners should record the event and return quickly. <p>
+ *
+ * NOTE: The SMTPMetricsListener, and all APIs related to it, should
+ * be considered <strong>EXPERIMENTAL</strong>.  They may be changed in the
+ * future in ways that are incompatible with applications using the
+ * current APIs.
+ *
+ * @see SMTPTransport#setMetricsListener
+ * @since JavaMail 1.6.7
+ */
+public interface SMTPMetricsListener extends java.util.EventListener {
+
+    /**
+     * Invoked when a phase of the SMTP protocol completes successfully.
+     *
+     * @param e the SMTPMetricsEvent
+     */
+    public void phaseCompleted(SMTPMetricsEvent e);
+}
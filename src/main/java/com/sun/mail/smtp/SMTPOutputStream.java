@@ -48,23 +48,51 @@ public class SMTPOutputStream extends CRLFOutputStream {
 
     /*
      * This method has been added to improve performance.
+     * Escaping dots and converting line terminators are done in
+     * one pass, copying runs of bytes that don't need to change,
+     * including lines that already end with CRLF, in one write.
      */
     @Override
     public void write(byte b[], int off, int len) throws IOException {
-        int lastc = (lastb == -1) ? '\n' : lastb;
         int start = off;
+        int end = off + len;
+        int lastc = (lastb == -1) ? '\n' : lastb;
 
-        len += off;
-        for (int i = off; i < len; i++) {
-            if ((lastc == '\n' || lastc == '\r') && b[i] == '.') {
-                super.write(b, start, i - start);
-                out.write('.');
-                start = i;
+        for (int i = off; i < end; i++) {
+            int c = b[i];
+            if (c == '.') {
+                if (lastc == '\n' || lastc == '\r') {
+                    out.write(b, start, i - start);
+                    out.write('.');
+                    start = i;    // the "." starts the next run
+                }
+            } else if (c == '\r') {
+                if (i + 1 < end && b[i + 1] == '\n') {
+                    // already canonical, keep it in the run
+                    c = b[++i];
+                } else {
+                    out.write(b, start, i + 1 - start);
+                    out.write('\n');
+                    start = i + 1;
+                }
+            } else if (c == '\n') {
+                if (lastc == '\r') {
+                    // CR at the end of the last write was already expanded
+                    start = i + 1;
+                } else {
+                    out.write(b, start, i - start);
+                    out.write('\r');
+                    start = i;    // LF starts the next run
+                }
             }
-            lastc = b[i];
+            lastc = c;
+        }
+        if (end > start)
+            out.write(b, start, end - start);
+        if (len > 0) {
+            lastb = lastc;
+            atBOL = lastc == '\r' || lastc == '\n';
         }
-        if ((len - start) > 0)
-            super.write(b, start, len - start);
     }
 
     /**
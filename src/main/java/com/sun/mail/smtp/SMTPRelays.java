@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.smtp;
+
+import com.sun.mail.util.MailLogger;
+import com.sun.mail.util.PropUtil;
+import com.sun.mail.util.SocketFetcher;
+
+import javax.mail.Session;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+/**
+ * The relays listed in the <code>mail.smtp.relays</code> property,
+ * shared by all transports of a Session.  Connections are spread
+ * across the relays, either in turn or preferring the relays that
+ * have connected fastest.  A relay that fails to connect, or
+ * responds with a 421 response code, isn't used for a while. <p>
+ *
+ * If a connection attempt hasn't succeeded within the race delay,
+ * an attempt to connect to the next relay is started in parallel,
+ * and the first connection to succeed is used.
+ *
+ * @since JavaMail 1.6.7
+ */
+final class SMTPRelays {
+    // relays shared by all transports of a Session
+    private static final Map<Session, Map<String, SMTPRelays>>
+            sessionRelays = new WeakHashMap<>();
+    // runs the connection attempts that race each other; idle threads end
+    private static final ExecutorService connectExecutor =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "JavaMail-SMTP-connect");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final Relay[] relays;
+    private final boolean byLatency;    // else round robin
+    private final long ejectTime;
+    private final long raceDelay;
+    private int next;                   // for round robin
+
+    /**
+     * A relay host and port.
+     */
+    static final class Relay {
+        final String host;
+        final int port;            // -1 for the default port
+        private long latency;      // average time to connect, in nanoseconds
+        private long ejectedUntil;
+
+        Relay(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public String toString() {
+            return port == -1 ? host : host + ":" + port;
+        }
+    }
+
+    /**
+     * The result of racing connection attempts.
+     */
+    static final class Connection {
+        Relay relay;
+        Socket socket;
+        IOException failure;
+        int running;
+        boolean abandoned;
+    }
+
+    private SMTPRelays(Relay[] relays, boolean byLatency,
+                       long ejectTime, long raceDelay) {
+        this.relays = relays;
+        this.byLatency = byLatency;
+        this.ejectTime = ejectTime;
+        this.raceDelay = raceDelay;
+    }
+
+    /**
+     * Return the relays shared by all transports of the Session
+     * for the named protocol, or null if no relays are configured.
+     */
+    static SMTPRelays getSessionRelays(Session session, String name) {
+        Properties props = session.getProperties();
+        String list = props.getProperty("mail." + name + ".relays");
+        if (list == null)
+            return null;
+        Relay[] relays = parse(list);
+        if (relays.length == 0)
+            return null;
+        synchronized (sessionRelays) {
+            Map<String, SMTPRelays> m = sessionRelays.get(session);
+            if (m == null) {
+                m = new HashMap<>();
+                sessionRelays.put(session, m);
+            }
+            SMTPRelays r = m.get(name);
+            if (r == null) {
+                r = new SMTPRelays(relays,
+                        "latency".equalsIgnoreCase(props.getProperty(
+                                "mail." + name + ".relays.policy")),
+                        PropUtil.getIntProperty(props,
+                                "mail." + name + ".relays.ejecttime", 30000),
+                        PropUtil.getIntProperty(props,
+                                "mail." + name + ".relays.racedelay", 250));
+                m.put(name, r);
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Parse a list of "host" or "host:port" entries, separated by
+     * white space or commas.  IPv6 addresses with a port must be
+     * enclosed in brackets.
+     */
+    private static Relay[] parse(String list) {
+        List<Relay> v = new ArrayList<>();
+        StringTokenizer st = new StringTokenizer(list, " \t\r\n,");
+        while (st.hasMoreTokens()) {
+            String s = st.nextToken();
+            int port = -1;
+            int i = s.lastIndexOf(':');
+            if (i > 0 && (s.startsWith("[") ? s.charAt(i - 1) == ']' :
+                    s.indexOf(':') == i)) {
+                try {
+                    port = Integer.parseInt(s.substring(i + 1));
+                    s = s.substring(0, i);
+                } catch (NumberFormatException ex) {
+                    // not a port, treat it as part of the host
+                }
+            }
+            if (s.startsWith("[") && s.endsWith("]"))
+                s = s.substring(1, s.length() - 1);
+            v.add(new Relay(s, port));
+        }
+        return v.toArray(new Relay[v.size()]);
+    }
+
+    /**
+     * Return the relays in the order they should be tried.
+     * Relays that have failed recently are tried last.
+     */
+    synchronized List<Relay> order() {
+        List<Relay> v = new ArrayList<>(relays.length);
+        int start = next;
+        next = (next + 1) % relays.length;
+        for (int i = 0; i < relays.length; i++)
+            v.add(relays[(start + i) % relays.length]);
+        if (byLatency) {
+            // unmeasured relays have latency 0, so they're tried first
+            Collections.sort(v, new Comparator<Relay>() {
+                @Override
+                public int compare(Relay a, Relay b) {
+                    return Long.compare(a.latency, b.latency);
+                }
+            });
+        }
+        long now = System.currentTimeMillis();
+        List<Relay> ejected = null;
+        for (Iterator<Relay> it = v.iterator(); it.hasNext(); ) {
+            Relay r = it.next();
+            if (r.ejectedUntil > now) {
+                it.remove();
+                if (ejected == null)
+                    ejected = new ArrayList<>();
+                ejected.add(r);
+            }
+        }
+        if (ejected != null)
+            v.addAll(ejected);
+        return v;
+    }
+
+    /**
+     * The relay was connected to successfully, taking the
+     * given number of nanoseconds.
+     */
+    synchronized void succeeded(Relay r, long time) {
+        r.latency = r.latency == 0 ? time : (r.latency * 7 + time) / 8;
+        r.ejectedUntil = 0;
+    }
+
+    /**
+     * The relay failed; don't use it for a while.
+     */
+    synchronized void failed(Relay r) {
+        r.ejectedUntil = System.currentTimeMillis() + ejectTime;
+    }
+
+    /**
+     * Connect to one of the relays, trying them in order.  If the
+     * race delay is positive and an attempt hasn't finished within
+     * the delay, the next attempt is started without waiting for it.
+     * Returns the first successful connection; any later connections
+     * are closed.
+     */
+    Connection connect(List<Relay> order, final int defaultPort,
+                       final Properties props, final String prefix,
+                       final boolean isSSL, final MailLogger logger)
+            throws IOException {
+        final Connection c = new Connection();
+        if (raceDelay <= 0) {
+            for (Relay r : order) {
+                try {
+                    c.socket = SocketFetcher.getSocket(r.host,
+                            r.port != -1 ? r.port : defaultPort,
+                            props, prefix, isSSL);
+                    c.relay = r;
+                    return c;
+                } catch (IOException ex) {
+                    logger.log(Level.FINE, "connect to relay failed", ex);
+                    failed(r);
+                    c.failure = ex;
+                }
+            }
+            throw c.failure;
+        }
+
+        Iterator<Relay> it = order.iterator();
+        synchronized (c) {
+            try {
+                for (; ; ) {
+                    if (c.socket != null)
+                        return c;
+                    if (it.hasNext() && c.running == 0) {
+                        start(c, it.next(), defaultPort, props, prefix,
+                                isSSL, logger);
+                        continue;
+                    }
+                    if (c.running == 0)
+                        throw c.failure;
+                    if (!it.hasNext()) {
+                        c.wait();
+                        continue;
+                    }
+                    long end = System.currentTimeMillis() + raceDelay;
+                    long wait;
+                    while (c.socket == null && c.running > 0 &&
+                            (wait = end - System.currentTimeMillis()) > 0)
+                        c.wait(wait);
+                    if (c.socket == null && c.running > 0) {
+                        logger.fine("relay slow to connect, trying another");
+                        start(c, it.next(), defaultPort, props, prefix,
+                                isSSL, logger);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                // restore the interrupted state, which callers might depend on
+                Thread.currentThread().interrupt();
+                c.abandoned = true;
+                throw new InterruptedIOException("interrupted connecting");
+            }
+        }
+    }
+
+    /**
+     * Start an attempt to connect to the relay, using a thread
+     * from the shared executor.
+     */
+    private void start(final Connection c, final Relay r,
+                       final int defaultPort, final Properties props,
+                       final String prefix, final boolean isSSL,
+                       final MailLogger logger) {
+        c.running++;
+        connectExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Socket s = null;
+                IOException failure = null;
+                try {
+                    s = SocketFetcher.getSocket(r.host,
+                            r.port != -1 ? r.port : defaultPort,
+                            props, prefix, isSSL);
+                } catch (IOException ex) {
+                    logger.log(Level.FINE, "connect to relay failed", ex);
+                    failed(r);
+                    failure = ex;
+                } catch (RuntimeException ex) {
+                    failure = new IOException(ex);
+                }
+                synchronized (c) {
+                    c.running--;
+                    if (s != null && c.socket == null && !c.abandoned) {
+                        c.socket = s;
+                        c.relay = r;
+                        s = null;
+                    } else if (failure != null)
+                        c.failure = failure;
+                    c.notifyAll();
+                }
+                if (s != null) {    // lost the race
+                    try {
+                        s.close();
+                    } catch (IOException ex) {
+                        // ignore it
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.smtp;
+
+import javax.mail.Address;
+import javax.mail.Message;
+
+/**
+ * The result of sending a message using
+ * {@link SMTPTransport#sendMessageAsync SMTPTransport.sendMessageAsync}.
+ * The addresses are those that would be reported to a TransportListener
+ * for the message.
+ *
+ * @since JavaMail 1.6.7
+ */
+public class SMTPSendResult {
+    private final Message msg;
+    private final Address[] validSent;
+    private final Address[] validUnsent;
+    private final Address[] invalid;
+    private final int rc;
+    private final String response;
+
+    /**
+     * Constructs an SMTPSendResult.
+     *
+     * @param msg         the message that was sent
+     * @param validSent   the valid addresses the message was sent to
+     * @param validUnsent the valid addresses the message was not sent to
+     * @param invalid     the invalid addresses
+     * @param rc          the return code of the server's last response
+     * @param response    the server's last response
+     */
+    public SMTPSendResult(Message msg, Address[] validSent,
+                          Address[] validUnsent, Address[] invalid,
+                          int rc, String response) {
+        this.msg = msg;
+        this.validSent = validSent;
+        this.validUnsent = validUnsent;
+        this.invalid = invalid;
+        this.rc = rc;
+        this.response = response;
+    }
+
+    /**
+     * Return the message that was sent.
+     *
+     * @return the message
+     */
+    public Message getMessage() {
+        return msg;
+    }
+
+    /**
+     * Return the addresses to which the message was sent.
+     *
+     * @return the addresses, or null if none
+     */
+    public Address[] getValidSentAddresses() {
+        return validSent;
+    }
+
+    /**
+     * Return the valid addresses to which the message was not sent.
+     *
+     * @return the addresses, or null if none
+     */
+    public Address[] getValidUnsentAddresses() {
+        return validUnsent;
+    }
+
+    /**
+     * Return the addresses that the server rejected.
+     *
+     * @return the addresses, or null if none
+     */
+    public Address[] getInvalidAddresses() {
+        return invalid;
+    }
+
+    /**
+     * Return the return code of the server's response
+     * to the end of the message data.
+     *
+     * @return the return code
+     */
+    public int getReturnCode() {
+        return rc;
+    }
+
+    /**
+     * Return the server's response to the end of the message data,
+     * which often includes an identifier the server assigned the message.
+     *
+     * @return the server's response
+     */
+    public String getServerResponse() {
+        return response;
+    }
+}
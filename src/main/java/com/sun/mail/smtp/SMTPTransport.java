@@ -27,9 +27,20 @@ import java.io.*;
 import java.lang.reflect.Constructor;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 
 /**
@@ -70,6 +81,13 @@ public class SMTPTransport extends Transport {
     private static final byte[] CRLF = {(byte) '\r', (byte) '\n'};
     private static final String UNKNOWN = "UNKNOWN";    // place holder
     private static final String[] UNKNOWN_SA = new String[0]; // place holder
+    // how long to use the local host name found by defaultLocalHost
+    private static final long LOCALHOST_CACHE_TIME = 5 * 60 * 1000;
+    // most commands, and bytes of commands, to pipeline before reading responses
+    private static final int PIPELINE_COMMANDS = 100;
+    private static final int PIPELINE_BYTES = 8192;
+    private static String defaultLocalHostName;
+    private static long defaultLocalHostTime;
     private static char[] hexchar = {
             '0', '1', '2', '3', '4', '5', '6', '7',
             '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
@@ -119,6 +137,26 @@ public class SMTPTransport extends Transport {
     private boolean debugpassword;    // include password in debug output?
     private boolean allowutf8;        // allow UTF-8 usernames and passwords?
     private int chunkSize;        // chunk size if CHUNKING supported
+    private boolean usePipelining;    // use PIPELINING if supported?
+    private boolean pipelining;    // pipelining the current message?
+    private String pendingMailFrom;    // MAIL command awaiting response
+    private String pendingFrom;        // address in pendingMailFrom
+    private int unreadResponses;    // responses to pipelined commands
+    private SMTPConnectionPool connectionPool;    // pool of connections
+    private SMTPConnectionPool.Key poolKey;    // set while using the pool
+    private SMTPConnectionPool pool;    // pool poolKey belongs to
+    private boolean idle;    // between transactions, can be pooled
+    private int messagesSent;        // messages sent on this connection
+    private EncodedMessageCache messageCache;    // encoded messages
+    private FileChannel messageContent;    // encoded message being sent
+    private SMTPSendResult sendResult;    // result reported to listeners
+    private Executor asyncExecutor;    // runs sendMessageAsync
+    private ExecutorService defaultAsyncExecutor;    // if none set
+    private final Semaphore asyncPermits;    // limits sendMessageAsync
+    private SMTPRelays relays;        // from mail.smtp.relays
+    private SMTPRelays.Relay relay;    // relay we're connected to
+    private SMTPRelays relayOwner;    // the relays relay is one of
+    private SMTPMetricsListener metricsListener;    // times each phase
     ///////////////////// smtp stuff ///////////////////////
     private BufferedInputStream serverInput;
     private LineInputStream lineInputStream;
@@ -223,6 +261,50 @@ public class SMTPTransport extends Transport {
         if (chunkSize > 0 && logger.isLoggable(Level.CONFIG))
             logger.config("chunk size " + chunkSize);
 
+        /*
+         * A subclass that overrides mailFrom or rcptTo expects the
+         * response to each command to be read when it's sent,
+         * so we can't pipeline the commands.
+         */
+        usePipelining = PropUtil.getBooleanProperty(props,
+                "mail." + name + ".pipelining", true) &&
+                !overrides("mailFrom") && !overrides("rcptTo");
+        if (!usePipelining)
+            logger.config("don't use PIPELINING");
+
+        // mail.smtp.connectionpool.enable causes all transports of this
+        // Session to share a pool of connections
+        if (PropUtil.getBooleanProperty(props,
+                "mail." + name + ".connectionpool.enable", false)) {
+            connectionPool = SMTPConnectionPool.getSessionPool(session, name);
+            logger.config("use connection pool");
+        }
+
+        // mail.smtp.relays lists the relays to connect to instead of
+        // the host
+        relays = SMTPRelays.getSessionRelays(session, name);
+        if (relays != null)
+            logger.config("use relays");
+
+        // mail.smtp.metricslistener is notified of the time each phase takes
+        Object ml = props.get("mail." + name + ".metricslistener");
+        if (ml instanceof SMTPMetricsListener) {
+            metricsListener = (SMTPMetricsListener) ml;
+            logger.config("use metrics listener");
+        }
+
+        // mail.smtp.async.maxinflight limits sendMessageAsync
+        asyncPermits = new Semaphore(Math.max(1, PropUtil.getIntProperty(props,
+                "mail." + name + ".async.maxinflight", 100)));
+
+        // mail.smtp.messagecache causes the encoded form of messages
+        // to be kept, for messages sent more than once
+        if (PropUtil.getBooleanProperty(props,
+                "mail." + name + ".messagecache", false)) {
+            messageCache = EncodedMessageCache.getSessionCache(session, name);
+            logger.config("use message cache");
+        }
+
         // created here, because they're inner classes that reference "this"
         Authenticator[] a = new Authenticator[]{
                 new LoginAuthenticator(),
@@ -239,6 +321,24 @@ public class SMTPTransport extends Transport {
         defaultAuthenticationMechanisms = sb.toString();
     }
 
+    /**
+     * Does a subclass override the named method?
+     */
+    private boolean overrides(String method) {
+        for (Class<?> c = getClass(); c != SMTPTransport.class;
+             c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(method);
+                return true;
+            } catch (NoSuchMethodException ex) {
+                // keep looking
+            } catch (SecurityException ex) {
+                return true;    // assume it does
+            }
+        }
+        return false;
+    }
+
     /**
      * Convert a string to RFC 1891 xtext format.
      *
@@ -317,14 +417,8 @@ public class SMTPTransport extends Transport {
             localHostName =
                     session.getProperty("mail." + name + ".localaddress");
         try {
-            if (localHostName == null || localHostName.length() <= 0) {
-                InetAddress localHost = InetAddress.getLocalHost();
-                localHostName = localHost.getCanonicalHostName();
-                // if we can't get our name, use local address literal
-                if (localHostName == null)
-                    // XXX - not correct for IPv6
-                    localHostName = "[" + localHost.getHostAddress() + "]";
-            }
+            if (localHostName == null || localHostName.length() <= 0)
+                localHostName = defaultLocalHost();
         } catch (UnknownHostException uhex) {
         }
 
@@ -342,6 +436,28 @@ public class SMTPTransport extends Transport {
         return localHostName;
     }
 
+    /**
+     * Return the name of the local host, as found by a reverse lookup
+     * of its address.  The lookup can be slow, so the name is shared by
+     * all transports and only looked up again after a few minutes.
+     */
+    private static synchronized String defaultLocalHost()
+            throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        if (defaultLocalHostName == null ||
+                now - defaultLocalHostTime > LOCALHOST_CACHE_TIME) {
+            InetAddress localHost = InetAddress.getLocalHost();
+            String name = localHost.getCanonicalHostName();
+            // if we can't get our name, use local address literal
+            if (name == null)
+                // XXX - not correct for IPv6
+                name = "[" + localHost.getHostAddress() + "]";
+            defaultLocalHostName = name;
+            defaultLocalHostTime = now;
+        }
+        return defaultLocalHostName;
+    }
+
     /**
      * Set the name of the local host, for use in the EHLO and HELO commands.
      *
@@ -650,6 +766,31 @@ public class SMTPTransport extends Transport {
         this.noopStrict = noopStrict;
     }
 
+    /**
+     * Return the pool this transport takes its connection from.
+     *
+     * @return the connection pool, or null if none
+     * @since JavaMail 1.6.7
+     */
+    public synchronized SMTPConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Set the pool this transport takes its connection from.
+     * When connected, the transport reuses an idle connection
+     * from the pool, if there is one, and when closed the
+     * connection is returned to the pool.  The pool only
+     * takes effect the next time the transport is connected.
+     *
+     * @param pool the connection pool, or null to not use a pool
+     * @see SMTPConnectionPool
+     * @since JavaMail 1.6.7
+     */
+    public synchronized void setConnectionPool(SMTPConnectionPool pool) {
+        connectionPool = pool;
+    }
+
     /**
      * Return the last response we got from the server.
      * A failed send is often followed by an RSET command,
@@ -747,14 +888,23 @@ public class SMTPTransport extends Transport {
 
             if (serverSocket != null)
                 openServer();    // only happens from connect(socket)
-            else
+            else if (connectionPool != null &&
+                    takeConnection(host, port, user, password)) {
+                connected = true;
+                return true;
+            } else {
+                long start = phaseStart();
                 openServer(host, port);
+                phaseEnd(SMTPMetricsEvent.CONNECT, start, 0, lastReturnCode);
+            }
 
+            long start = phaseStart();
             boolean succeed = false;
             if (useEhlo)
                 succeed = ehlo(getLocalHost());
             if (!succeed)
                 helo(getLocalHost());
+            phaseEnd(SMTPMetricsEvent.EHLO, start, 0, lastReturnCode);
 
             if (useStartTLS || requireStartTLS) {
                 if (serverSocket instanceof SSLSocket) {
@@ -764,14 +914,18 @@ public class SMTPTransport extends Transport {
                         // Support Outlook STARTTLS
                         || !isSupportsAuthExt() || requireStartTLS
                 ) {
+                    start = phaseStart();
                     startTLS();
+                    phaseEnd(SMTPMetricsEvent.STARTTLS, start, 0, 220);
                     /*
                      * Have to issue another EHLO to update list of extensions
                      * supported, especially authentication mechanisms.
                      * Don't know if this could ever fail, but we ignore
                      * failure.
                      */
+                    start = phaseStart();
                     ehlo(getLocalHost());
+                    phaseEnd(SMTPMetricsEvent.EHLO, start, 0, lastReturnCode);
                 }
             }
 
@@ -785,7 +939,10 @@ public class SMTPTransport extends Transport {
                             ", host=" + host +
                             ", user=" + traceUser(user) +
                             ", password=" + tracePassword(password));
+                start = phaseStart();
                 connected = authenticate(user, password);
+                if (connected)
+                    phaseEnd(SMTPMetricsEvent.AUTH, start, 0, lastReturnCode);
                 return connected;
             }
 
@@ -802,10 +959,75 @@ public class SMTPTransport extends Transport {
                 } catch (MessagingException mex) {
                     // ignore it
                 }
+            } else
+                idle = true;
+        }
+    }
+
+    /**
+     * Take a connection from the pool, checking that it's still usable.
+     * Returns false if a new connection should be made instead.
+     */
+    private boolean takeConnection(String host, int port,
+                                   String user, String password)
+            throws MessagingException {
+        SMTPConnectionPool.Key key =
+                new SMTPConnectionPool.Key(name, host, port, user, password);
+        // setConnectionPool only takes effect when next connected
+        pool = connectionPool;
+        for (; ; ) {
+            SMTPConnectionPool.Connection c = pool.take(key);
+            poolKey = key;
+            if (c == null) {
+                messagesSent = 0;
+                return false;
             }
+            serverSocket = c.socket;
+            traceInput = c.traceInput;
+            traceOutput = c.traceOutput;
+            serverInput = c.input;
+            lineInputStream = c.lineInput;
+            serverOutput = c.output;
+            extMap = c.extMap;
+            messagesSent = c.messages;
+            relay = c.relay;
+            relayOwner = c.relays;
+            // checkConnection closes the connection if it fails
+            if (checkConnection()) {
+                logger.fine("reusing pooled connection");
+                return true;
+            }
+            logger.fine("pooled connection failed check");
         }
     }
 
+    /**
+     * Detach the connection from this transport and return it to the pool.
+     */
+    private void releaseConnection() {
+        SMTPConnectionPool.Connection c =
+                new SMTPConnectionPool.Connection(poolKey);
+        c.socket = serverSocket;
+        c.traceInput = traceInput;
+        c.traceOutput = traceOutput;
+        c.input = serverInput;
+        c.lineInput = lineInputStream;
+        c.output = serverOutput;
+        c.extMap = extMap;
+        c.messages = messagesSent;
+        c.relay = relay;
+        c.relays = relayOwner;
+        relay = null;
+        relayOwner = null;
+        serverSocket = null;
+        serverOutput = null;
+        serverInput = null;
+        lineInputStream = null;
+        poolKey = null;
+        pool.release(c);
+        pool = null;
+    }
+
     private boolean isSupportsAuthExt() {
         return supportsExtension("AUTH") || supportsExtension("AUTH=LOGIN");
     }
@@ -1029,6 +1251,7 @@ public class SMTPTransport extends Transport {
 
         this.message = (MimeMessage) message;
         this.addresses = addresses;
+        messagesSent++;
         validUnsentAddr = addresses;    // until we know better
         expandGroups();
 
@@ -1040,7 +1263,8 @@ public class SMTPTransport extends Transport {
                     "mail." + name + ".allow8bitmime", false);
         if (logger.isLoggable(Level.FINE))
             logger.fine("use8bit " + use8bit);
-        if (use8bit && supportsExtension("8BITMIME")) {
+        if (use8bit && messageContent == null &&
+                supportsExtension("8BITMIME")) {
             if (convertTo8Bit(this.message)) {
                 // in case we made any changes, save those changes
                 // XXX - this will change the Message-ID
@@ -1053,9 +1277,27 @@ public class SMTPTransport extends Transport {
         }
 
         try {
+            /*
+             * If the server supports PIPELINING (RFC 2920), the MAIL
+             * command and all the RCPT commands are sent together,
+             * and the responses are read by rcptTo.  The DATA or BDAT
+             * command is sent after all the responses have been read,
+             * because once the server accepts it the message can't be
+             * abandoned if some recipients were rejected.
+             */
+            pipelining = usePipelining && supportsExtension("PIPELINING");
+            idle = false;    // until the transaction completes
+            long start = phaseStart();
             mailFrom();
+            phaseEnd(SMTPMetricsEvent.MAIL, start, 0,
+                    pipelining ? -1 : lastReturnCode);
+            start = phaseStart();
             rcptTo();
-            if (chunkSize > 0 && supportsExtension("CHUNKING")) {
+            phaseEnd(SMTPMetricsEvent.RCPT, start, 0, lastReturnCode);
+            pipelining = false;
+            if (messageContent != null) {
+                sendContent(messageContent);
+            } else if (chunkSize > 0 && supportsExtension("CHUNKING")) {
                 /*
                  * Use BDAT to send the data in chunks.
                  * Note that even though the BDAT command is able to send
@@ -1065,12 +1307,21 @@ public class SMTPTransport extends Transport {
                  * from the message content, and b) the message content is
                  * encoded before we even know that we can use BDAT.
                  */
-                this.message.writeTo(bdat(), ignoreList);
+                start = phaseStart();
+                long bytes = writeMessage(bdat());
+                phaseEnd(SMTPMetricsEvent.DATA, start, bytes, -1);
+                start = phaseStart();
                 finishBdat();
+                phaseEnd(SMTPMetricsEvent.REPLY, start, 0, lastReturnCode);
             } else {
-                this.message.writeTo(data(), ignoreList);
+                start = phaseStart();
+                long bytes = writeMessage(data());
+                phaseEnd(SMTPMetricsEvent.DATA, start, bytes, lastReturnCode);
+                start = phaseStart();
                 finishData();
+                phaseEnd(SMTPMetricsEvent.REPLY, start, 0, lastReturnCode);
             }
+            idle = true;    // the server accepted the message
             if (sendPartiallyFailed) {
                 // throw the exception,
                 // fire TransportEvent.MESSAGE_PARTIALLY_DELIVERED event
@@ -1128,6 +1379,9 @@ public class SMTPTransport extends Transport {
             this.exception = null;
             sendPartiallyFailed = false;
             notificationDone = false;    // reset for next send
+            pipelining = false;
+            pendingMailFrom = pendingFrom = null;
+            unreadResponses = 0;
         }
         sendMessageEnd();
     }
@@ -1158,8 +1412,25 @@ public class SMTPTransport extends Transport {
      */
     @Override
     public synchronized void close() throws MessagingException {
+        if (defaultAsyncExecutor != null) {
+            // messages still waiting will fail, since we're not connected
+            defaultAsyncExecutor.shutdown();
+            defaultAsyncExecutor = null;
+        }
         if (!super.isConnected()) // Already closed.
             return;
+        if (poolKey != null && serverSocket != null) {
+            if (!idle) {
+                // the last transaction didn't finish, don't reuse it
+                closeConnection();
+                return;
+            }
+            if (pool.isReusable(messagesSent)) {
+                releaseConnection();
+                super.close();
+                return;
+            }
+        }
         try {
             if (serverSocket != null) {
                 sendCommand("QUIT");
@@ -1186,6 +1457,13 @@ public class SMTPTransport extends Transport {
             serverOutput = null;
             serverInput = null;
             lineInputStream = null;
+            relay = null;
+            relayOwner = null;
+            if (poolKey != null) {
+                pool.discard(poolKey);
+                poolKey = null;
+                pool = null;
+            }
             if (super.isConnected())    // only notify if already connected
                 super.close();
         }
@@ -1200,7 +1478,14 @@ public class SMTPTransport extends Transport {
         if (!super.isConnected())
             // if we haven't been connected at all, don't bother with NOOP
             return false;
+        return checkConnection();
+    }
 
+    /**
+     * Ping the server to check that the connection is still usable,
+     * closing the connection if it isn't.
+     */
+    private boolean checkConnection() {
         try {
             // sendmail may respond slowly to NOOP after many requests
             // so if mail.smtp.userset is set we use RSET instead of NOOP.
@@ -1228,6 +1513,8 @@ public class SMTPTransport extends Transport {
              * servers that return the wrong response code for success.
              */
             if (resp >= 0 && (noopStrict ? resp == 250 : resp != 421)) {
+                if (useRset)
+                    idle = true;
                 return true;
             } else {
                 try {
@@ -1259,6 +1546,8 @@ public class SMTPTransport extends Transport {
                                             Address[] invalid, Message msg) {
 
         if (!notificationDone) {
+            sendResult = new SMTPSendResult(msg, validSent, validUnsent,
+                    invalid, lastReturnCode, lastServerResponse);
             super.notifyTransportListeners(type, validSent, validUnsent,
                     invalid, msg);
             notificationDone = true;
@@ -1565,32 +1854,46 @@ public class SMTPTransport extends Transport {
         if (ext != null && ext.length() > 0)
             cmd += " " + ext;
 
+        if (pipelining) {
+            // rcptTo sends this with the RCPT commands and reads the response
+            pendingMailFrom = cmd;
+            pendingFrom = from;
+            return;
+        }
         try {
             issueSendCommand(cmd, 250);
         } catch (SMTPSendFailedException ex) {
-            int retCode = ex.getReturnCode();
-            switch (retCode) {
-                case 550:
-                case 553:
-                case 503:
-                case 551:
-                case 501:
-                    // given address is invalid
-                    try {
-                        ex.setNextException(new SMTPSenderFailedException(
-                                new InternetAddress(from), cmd,
-                                retCode, ex.getMessage()));
-                    } catch (AddressException aex) {
-                        // oh well...
-                    }
-                    break;
-                default:
-                    break;
-            }
-            throw ex;
+            throw senderFailed(ex, from, cmd);
         }
     }
 
+    /**
+     * The MAIL command failed, add the sender address to the exception.
+     */
+    private SMTPSendFailedException senderFailed(SMTPSendFailedException ex,
+                                                 String from, String cmd) {
+        int retCode = ex.getReturnCode();
+        switch (retCode) {
+            case 550:
+            case 553:
+            case 503:
+            case 551:
+            case 501:
+                // given address is invalid
+                try {
+                    ex.setNextException(new SMTPSenderFailedException(
+                            new InternetAddress(from), cmd,
+                            retCode, ex.getMessage()));
+                } catch (AddressException aex) {
+                    // oh well...
+                }
+                break;
+            default:
+                break;
+        }
+        return ex;
+    }
+
     /////// smtp protocol //////
 
     /**
@@ -1645,16 +1948,41 @@ public class SMTPTransport extends Transport {
                 dsn = true;
         }
 
+        String[] cmds = new String[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            InternetAddress ia = (InternetAddress) addresses[i];
+            cmds[i] = "RCPT TO:" + normalizeAddress(ia.getAddress());
+            if (dsn)
+                cmds[i] += " NOTIFY=" + notify;
+        }
+
+        int sent = 0;    // number of RCPT commands sent, if pipelining
+        if (pipelining) {
+            // send the commands in chunks, reading each chunk's responses
+            String cmd = pendingMailFrom;
+            sent = sendPipelined(cmds, 0);
+            if (cmd != null) {
+                unreadResponses--;
+                try {
+                    checkSendResponse(cmd, 250);
+                } catch (SMTPSendFailedException ex) {
+                    throw senderFailed(ex, pendingFrom, cmd);
+                }
+            }
+        }
+
         // try the addresses one at a time
         for (int i = 0; i < addresses.length; i++) {
 
             sfex = null;
             InternetAddress ia = (InternetAddress) addresses[i];
-            String cmd = "RCPT TO:" + normalizeAddress(ia.getAddress());
-            if (dsn)
-                cmd += " NOTIFY=" + notify;
-            // send the addresses to the SMTP server
-            sendCommand(cmd);
+            String cmd = cmds[i];
+            if (pipelining) {
+                if (i == sent)    // all the responses have been read
+                    sent = sendPipelined(cmds, i);
+                unreadResponses--;    // already sent
+            } else    // send the addresses to the SMTP server
+                sendCommand(cmd);
             // check the server's response for address validity
             retCode = readServerResponse();
             switch (retCode) {
@@ -1743,8 +2071,9 @@ public class SMTPTransport extends Transport {
                                     ", with response: " + lastServerResponse);
                         String _lsr = lastServerResponse; // else rset will nuke it
                         int _lrc = lastReturnCode;
+                        skipUnreadResponses();
                         if (serverSocket != null)    // hasn't already been closed
-                            issueCommand("RSET", -1);
+                            reset();
                         lastServerResponse = _lsr;    // restore, for get
                         lastReturnCode = _lrc;
                         throw new SMTPAddressFailedException(ia, cmd, retCode,
@@ -1839,7 +2168,7 @@ public class SMTPTransport extends Transport {
             int lrc = lastReturnCode;
             try {
                 if (serverSocket != null)
-                    issueCommand("RSET", -1);
+                    reset();
             } catch (MessagingException ex) {
                 // if can't reset, best to close the connection
                 try {
@@ -1859,6 +2188,341 @@ public class SMTPTransport extends Transport {
         }
     }
 
+    /**
+     * Send a message whose RFC 822 form has already been written to a file,
+     * such as a message in a mail spool.  The content of the channel, from
+     * its current position to its end, is sent as is, so it must be the
+     * complete message, including the headers, with CRLF line terminators,
+     * and without any headers that shouldn't be sent, such as Bcc.
+     * The position of the channel is not changed. <p>
+     *
+     * The message is used only for the envelope, as by the
+     * {@link #sendMessage(Message, Address[]) sendMessage} method,
+     * and to report the result to TransportListeners.  Its content
+     * isn't read, so for a message in a file, a MimeMessage constructed
+     * from a {@link javax.mail.util.SharedFileInputStream
+     * SharedFileInputStream} on the file is sufficient. <p>
+     *
+     * If the server supports the CHUNKING extension, the content is sent
+     * using a single BDAT command, copied by
+     * {@link java.nio.channels.FileChannel#transferTo FileChannel.transferTo}
+     * when the connection uses a SocketChannel
+     * (see the <code>mail.smtp.usesocketchannels</code> property)
+     * and isn't being traced.  Otherwise it's sent using the DATA command,
+     * with lines starting with "." escaped as they're copied.
+     *
+     * @param message   the message, used for the envelope
+     * @param addresses the addresses to send the message to
+     * @param content   the RFC 822 form of the message
+     * @throws SMTPSendFailedException if the send failed because of
+     *                                 an SMTP command error
+     * @throws SendFailedException     if the send failed because of
+     *                                 invalid addresses.
+     * @throws MessagingException      if the connection is dead
+     *                                 or not in the connected state or if the message is
+     *                                 not a MimeMessage.
+     * @see #sendMessage(Message, Address[])
+     * @since JavaMail 1.6.7
+     */
+    public synchronized void sendMessage(Message message, Address[] addresses,
+                                         FileChannel content)
+            throws MessagingException, SendFailedException {
+        messageContent = content;
+        try {
+            sendMessage(message, addresses);
+        } finally {
+            messageContent = null;
+        }
+    }
+
+    /**
+     * Send the message asynchronously.  The message is sent by the
+     * {@link #setAsyncExecutor async Executor}, as by the
+     * {@link #sendMessage(Message, Address[]) sendMessage} method.
+     * Since a transport sends one message at a time, messages sent
+     * asynchronously using the same transport are sent one after
+     * another; use several transports to send messages in parallel. <p>
+     *
+     * The returned CompletableFuture completes with the addresses
+     * the message was sent to, and the server's response, when the
+     * message has been sent.  If the message can't be sent, it completes
+     * exceptionally with the exception that <code>sendMessage</code>
+     * would have thrown, such as a SendFailedException listing the
+     * addresses. <p>
+     *
+     * The number of messages that may be waiting to be sent is limited
+     * by the <code>mail.smtp.async.maxinflight</code> property.  When
+     * the limit is reached, the CompletableFuture completes exceptionally
+     * immediately, so the caller never waits.
+     *
+     * @param message   the message to send
+     * @param addresses the addresses to send the message to
+     * @return the CompletableFuture for the result
+     * @see #sendMessage(Message, Address[])
+     * @since JavaMail 1.6.7
+     */
+    public CompletableFuture<SMTPSendResult> sendMessageAsync(
+            final Message message, final Address[] addresses) {
+        final CompletableFuture<SMTPSendResult> future =
+                new CompletableFuture<>();
+        if (!asyncPermits.tryAcquire()) {
+            future.completeExceptionally(new MessagingException(
+                    "Too many messages waiting to be sent"));
+            return future;
+        }
+        try {
+            getAsyncExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(sendMessageResult(message, addresses));
+                    } catch (MessagingException | RuntimeException ex) {
+                        future.completeExceptionally(ex);
+                    } finally {
+                        asyncPermits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            asyncPermits.release();
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Send the message, returning the result reported to listeners.
+     */
+    private synchronized SMTPSendResult sendMessageResult(Message message,
+                                                          Address[] addresses)
+            throws MessagingException {
+        sendResult = null;
+        try {
+            sendMessage(message, addresses);
+            if (sendResult == null)    // a subclass didn't notify
+                sendResult = new SMTPSendResult(message, addresses,
+                        null, null, lastReturnCode, lastServerResponse);
+            return sendResult;
+        } finally {
+            sendResult = null;
+        }
+    }
+
+    /**
+     * Return the Executor used to send messages for
+     * {@link #sendMessageAsync sendMessageAsync}.  If none has
+     * been set, a single thread owned by this transport is used,
+     * which ends when the transport is closed.
+     *
+     * @return the Executor
+     * @since JavaMail 1.6.7
+     */
+    public synchronized Executor getAsyncExecutor() {
+        if (asyncExecutor != null)
+            return asyncExecutor;
+        if (defaultAsyncExecutor == null)
+            defaultAsyncExecutor = Executors.newSingleThreadExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r,
+                                    "JavaMail-SMTPTransport-async");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        return defaultAsyncExecutor;
+    }
+
+    /**
+     * Set the Executor used to send messages for
+     * {@link #sendMessageAsync sendMessageAsync}, for example an
+     * Executor that creates a virtual thread for each task.
+     *
+     * @param es the Executor, or null to use the default
+     * @since JavaMail 1.6.7
+     */
+    public synchronized void setAsyncExecutor(Executor es) {
+        asyncExecutor = es;
+    }
+
+    /**
+     * Send the encoded content of the message, using BDAT if the
+     * server supports CHUNKING.
+     */
+    private void sendContent(FileChannel ch)
+            throws IOException, MessagingException {
+        long pos = ch.position();
+        long size = ch.size() - pos;
+        long start = phaseStart();
+        if (supportsExtension("CHUNKING")) {
+            sendCommand("BDAT " + size + " LAST");
+            SocketChannel sc = serverSocket.getChannel();
+            /*
+             * Send exactly the number of bytes BDAT promised.  If the
+             * file shrinks, fail, which drops the connection.
+             */
+            long end = pos + size;
+            if (sc != null && !isTracing()) {
+                // serverOutput was flushed by sendCommand
+                while (pos < end) {
+                    long n = ch.transferTo(pos, end - pos, sc);
+                    if (n <= 0 && pos >= ch.size())
+                        throw new EOFException("Message file truncated");
+                    pos += n;
+                }
+            } else {
+                ByteBuffer bb = ByteBuffer.allocate(64 * 1024);
+                while (pos < end) {
+                    bb.limit((int) Math.min(bb.capacity(), end - pos));
+                    int n = ch.read(bb, pos);
+                    if (n < 0)
+                        throw new EOFException("Message file truncated");
+                    serverOutput.write(bb.array(), 0, n);
+                    pos += n;
+                    bb.clear();
+                }
+                serverOutput.flush();
+            }
+            phaseEnd(SMTPMetricsEvent.DATA, start, size, -1);
+            start = phaseStart();
+            checkSendResponse("BDAT", 250);
+            phaseEnd(SMTPMetricsEvent.REPLY, start, 0, lastReturnCode);
+            return;
+        }
+
+        issueSendCommand("DATA", 354);
+        /*
+         * Send the same bytes BDAT would have, the size taken above,
+         * even if the file grows while it's being sent.
+         */
+        long end = pos + size;
+        ByteBuffer bb = ByteBuffer.allocate(64 * 1024);
+        byte[] b = bb.array();
+        int lastc = '\n';
+        while (pos < end) {
+            bb.limit((int) Math.min(bb.capacity(), end - pos));
+            int n = ch.read(bb, pos);
+            if (n < 0)
+                throw new EOFException("Message file truncated");
+            // write each run of bytes up to a "." that starts a line
+            int off = 0;
+            for (int i = 0; i < n; i++) {
+                if (b[i] == '.' && lastc == '\n') {
+                    serverOutput.write(b, off, i - off);
+                    serverOutput.write('.');
+                    off = i;
+                }
+                lastc = b[i];
+            }
+            serverOutput.write(b, off, n - off);
+            pos += n;
+            bb.clear();
+        }
+        // end the last line, completing a final CR as SMTPOutputStream does
+        if (lastc == '\r')
+            serverOutput.write('\n');
+        else if (lastc != '\n')
+            serverOutput.write(CRLF);
+        phaseEnd(SMTPMetricsEvent.DATA, start, size, 354);
+        start = phaseStart();
+        issueSendCommand(".", 250);
+        phaseEnd(SMTPMetricsEvent.REPLY, start, 0, lastReturnCode);
+    }
+
+    /**
+     * Write the message to the data stream, using the message cache
+     * if enabled.  Returns the number of bytes written if there's a
+     * metrics listener, otherwise zero.
+     */
+    private long writeMessage(OutputStream os)
+            throws IOException, MessagingException {
+        CountingOutputStream cos = null;
+        if (metricsListener != null)
+            os = cos = new CountingOutputStream(os);
+        if (messageCache != null)
+            messageCache.writeTo(message, os, ignoreList);
+        else
+            message.writeTo(os, ignoreList);
+        if (cos == null)
+            return 0;
+        // so the time includes writing the data to the server,
+        // but without ending a BDAT chunk early
+        serverOutput.flush();
+        return cos.count;
+    }
+
+    /**
+     * Counts the bytes written through it.
+     */
+    private static final class CountingOutputStream
+            extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Return the time a protocol phase starts, if it's being measured.
+     */
+    private long phaseStart() {
+        return metricsListener != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Tell the metrics listener, if any, that the phase has completed.
+     */
+    private void phaseEnd(int phase, long start, long bytes, int rc) {
+        SMTPMetricsListener l = metricsListener;
+        if (l == null)
+            return;
+        long duration = System.nanoTime() - start;
+        try {
+            l.phaseCompleted(new SMTPMetricsEvent(this, phase, duration,
+                    bytes, rc, message));
+        } catch (RuntimeException ex) {
+            logger.log(Level.FINE, "metrics listener failed", ex);
+        }
+    }
+
+    /**
+     * Return the listener that's told how long each phase of the
+     * SMTP protocol takes.
+     *
+     * @return the SMTPMetricsListener, or null if none
+     * @since JavaMail 1.6.7
+     */
+    public synchronized SMTPMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Set the listener that's told how long each phase of the SMTP
+     * protocol takes, overriding the <code>mail.smtp.metricslistener</code>
+     * property.  The listener is called by the thread using this
+     * transport, as each phase completes.
+     *
+     * @param l the SMTPMetricsListener, or null for none
+     * @since JavaMail 1.6.7
+     */
+    public synchronized void setMetricsListener(SMTPMetricsListener l) {
+        metricsListener = l;
+    }
+
     /**
      * Send the <code>DATA</code> command to the SMTP host and return
      * an OutputStream to which the data is to be written.
@@ -1940,6 +2604,11 @@ public class SMTPTransport extends Transport {
     private void openServer(String host, int port)
             throws MessagingException {
 
+        if (relays != null) {
+            openRelay(port);
+            return;
+        }
+
         if (logger.isLoggable(Level.FINE))
             logger.fine("trying to connect to host \"" + host +
                     "\", port " + port + ", isSSL " + isSSL);
@@ -1949,51 +2618,7 @@ public class SMTPTransport extends Transport {
 
             serverSocket = SocketFetcher.getSocket(host, port,
                     props, "mail." + name, isSSL);
-
-            // socket factory may've chosen a different port,
-            // update it for the debug messages that follow
-            port = serverSocket.getPort();
-            // save host name for startTLS
-            this.host = host;
-
-            initStreams();
-
-            int r = -1;
-            if ((r = readServerResponse()) != 220) {
-                String failResponse = lastServerResponse;
-                try {
-                    if (quitOnSessionReject) {
-                        sendCommand("QUIT");
-                        if (quitWait) {
-                            int resp = readServerResponse();
-                            if (resp != 221 && resp != -1 &&
-                                    logger.isLoggable(Level.FINE))
-                                logger.fine("QUIT failed with " + resp);
-                        }
-                    }
-                } catch (Exception e) {
-                    if (logger.isLoggable(Level.FINE))
-                        logger.log(Level.FINE, "QUIT failed", e);
-                } finally {
-                    serverSocket.close();
-                    serverSocket = null;
-                    serverOutput = null;
-                    serverInput = null;
-                    lineInputStream = null;
-                }
-                if (logger.isLoggable(Level.FINE))
-                    logger.fine("got bad greeting from host \"" +
-                            host + "\", port: " + port +
-                            ", response: " + failResponse);
-                throw new MessagingException(
-                        "Got bad greeting from SMTP host: " + host +
-                                ", port: " + port +
-                                ", response: " + failResponse);
-            } else {
-                if (logger.isLoggable(Level.FINE))
-                    logger.fine("connected to host \"" +
-                            host + "\", port: " + port);
-            }
+            startServer(host);
         } catch (UnknownHostException uhex) {
             throw new MessagingException("Unknown SMTP host: " + host, uhex);
         } catch (SocketConnectException scex) {
@@ -2004,6 +2629,114 @@ public class SMTPTransport extends Transport {
         }
     }
 
+    /**
+     * Connect to one of the relays listed in mail.smtp.relays,
+     * trying the others if the connection fails or the relay
+     * rejects the connection.
+     */
+    private void openRelay(int port) throws MessagingException {
+        List<SMTPRelays.Relay> order = relays.order();
+        MessagingException failure = null;
+        while (!order.isEmpty()) {
+            if (logger.isLoggable(Level.FINE))
+                logger.fine("trying to connect to relays " + order +
+                        ", isSSL " + isSSL);
+            long start = System.nanoTime();
+            SMTPRelays.Connection c;
+            try {
+                c = relays.connect(order, port, session.getProperties(),
+                        "mail." + name, isSSL, logger);
+            } catch (InterruptedIOException ioe) {
+                throw new MessagingException(
+                        "Interrupted connecting to SMTP relays", ioe);
+            } catch (SocketConnectException scex) {
+                throw new MailConnectException(scex);
+            } catch (IOException ioe) {
+                throw new MessagingException(
+                        "Could not connect to SMTP relays: " + order, ioe);
+            }
+            order.remove(c.relay);
+            serverSocket = c.socket;
+            try {
+                startServer(c.relay.host);
+                relays.succeeded(c.relay, System.nanoTime() - start);
+                relay = c.relay;
+                relayOwner = relays;
+                return;
+            } catch (IOException ioe) {
+                failure = new MessagingException(
+                        "Could not connect to SMTP relay: " + c.relay, ioe);
+            } catch (MessagingException mex) {
+                failure = mex;    // bad greeting
+            }
+            relays.failed(c.relay);
+            if (serverSocket != null) {
+                try {
+                    serverSocket.close();
+                } catch (IOException ex) {
+                    // ignore it
+                }
+                serverSocket = null;
+                serverOutput = null;
+                serverInput = null;
+                lineInputStream = null;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Start the protocol on the newly connected serverSocket,
+     * reading the server's greeting.
+     */
+    private void startServer(String host)
+            throws IOException, MessagingException {
+        // socket factory may've chosen a different port,
+        // update it for the debug messages that follow
+        int port = serverSocket.getPort();
+        // save host name for startTLS
+        this.host = host;
+
+        initStreams();
+
+        int r = -1;
+        if ((r = readServerResponse()) != 220) {
+            String failResponse = lastServerResponse;
+            try {
+                if (quitOnSessionReject) {
+                    sendCommand("QUIT");
+                    if (quitWait) {
+                        int resp = readServerResponse();
+                        if (resp != 221 && resp != -1 &&
+                                logger.isLoggable(Level.FINE))
+                            logger.fine("QUIT failed with " + resp);
+                    }
+                }
+            } catch (Exception e) {
+                if (logger.isLoggable(Level.FINE))
+                    logger.log(Level.FINE, "QUIT failed", e);
+            } finally {
+                serverSocket.close();
+                serverSocket = null;
+                serverOutput = null;
+                serverInput = null;
+                lineInputStream = null;
+            }
+            if (logger.isLoggable(Level.FINE))
+                logger.fine("got bad greeting from host \"" +
+                        host + "\", port: " + port +
+                        ", response: " + failResponse);
+            throw new MessagingException(
+                    "Got bad greeting from SMTP host: " + host +
+                            ", port: " + port +
+                            ", response: " + failResponse);
+        } else {
+            if (logger.isLoggable(Level.FINE))
+                logger.fine("connected to host \"" +
+                        host + "\", port: " + port);
+        }
+    }
+
     /**
      * Start the protocol to the server on serverSocket,
      * assumed to be provided and connected by the caller.
@@ -2131,13 +2864,29 @@ public class SMTPTransport extends Transport {
             throw new MessagingException(lastServerResponse);
     }
 
+    /**
+     * Reset the connection after a failed transaction.  The
+     * connection can be pooled again if the server accepts the RSET.
+     */
+    private void reset() throws MessagingException {
+        issueCommand("RSET", -1);
+        idle = lastReturnCode == 250;
+    }
+
     /**
      * Issue a command that's part of sending a message.
      */
     private void issueSendCommand(String cmd, int expect)
             throws MessagingException {
         sendCommand(cmd);
+        checkSendResponse(cmd, expect);
+    }
 
+    /**
+     * Read the response to a command that's part of sending a message.
+     */
+    private void checkSendResponse(String cmd, int expect)
+            throws MessagingException {
         // if server responded with an unexpected return code,
         // throw the exception, notifying the client of the response
         int ret;
@@ -2158,8 +2907,9 @@ public class SMTPTransport extends Transport {
                         ", with response: " + lastServerResponse);
             String _lsr = lastServerResponse; // else rset will nuke it
             int _lrc = lastReturnCode;
+            skipUnreadResponses();
             if (serverSocket != null)    // hasn't already been closed
-                issueCommand("RSET", -1);
+                reset();
             lastServerResponse = _lsr;    // restore, for get
             lastReturnCode = _lrc;
             throw new SMTPSendFailedException(cmd, ret, lastServerResponse,
@@ -2223,6 +2973,61 @@ public class SMTPTransport extends Transport {
         }
     }
 
+    /**
+     * Send the next chunk of pipelined RCPT commands, starting with
+     * the pending MAIL command, if any.  The chunks are limited so the
+     * server can't fill its send buffer with responses and stop reading
+     * our commands while we're still writing them (RFC 2920 section 3.1).
+     * Returns the index of the first command not sent.
+     */
+    private int sendPipelined(String[] cmds, int start)
+            throws MessagingException {
+        List<String> batch = new ArrayList<>();
+        int bytes = 0;
+        if (pendingMailFrom != null) {
+            batch.add(pendingMailFrom);
+            bytes += pendingMailFrom.length() + 2;
+            pendingMailFrom = null;
+        }
+        int end = start;
+        while (end < cmds.length && batch.size() < PIPELINE_COMMANDS &&
+                bytes < PIPELINE_BYTES) {
+            batch.add(cmds[end]);
+            bytes += cmds[end++].length() + 2;
+        }
+        sendCommands(batch);
+        unreadResponses += batch.size();
+        return end;
+    }
+
+    /**
+     * Send several commands to the server at once, for PIPELINING.
+     */
+    private void sendCommands(List<String> cmds) throws MessagingException {
+        assert Thread.holdsLock(this);
+        try {
+            for (String cmd : cmds) {
+                serverOutput.write(toBytes(cmd));
+                serverOutput.write(CRLF);
+            }
+            serverOutput.flush();
+        } catch (IOException ex) {
+            throw new MessagingException("Can't send command to SMTP host", ex);
+        }
+    }
+
+    /**
+     * Read and ignore the responses to pipelined commands
+     * that haven't been read yet, e.g., after a failure.
+     */
+    private void skipUnreadResponses() throws MessagingException {
+        while (unreadResponses > 0) {
+            unreadResponses--;
+            if (readServerResponse() == -1)
+                unreadResponses = 0;    // connection is gone
+        }
+    }
+
     /**
      * Reads server reponse returning the <code>returnCode</code>
      * as the number.  Returns -1 on failure. Sets
@@ -2264,6 +3069,9 @@ public class SMTPTransport extends Transport {
             // ioex.printStackTrace(out);
             lastServerResponse = "";
             lastReturnCode = 0;
+            // the relay isn't responding, don't use it for a while
+            if (ioex instanceof SocketTimeoutException)
+                relayFailed();
             throw new MessagingException("Exception reading response", ioex);
             // returnCode = -1;
         }
@@ -2278,17 +3086,19 @@ public class SMTPTransport extends Transport {
                 returnCode = Integer.parseInt(serverResponse.substring(0, 3));
             } catch (NumberFormatException nfe) {
                 try {
-                    close();
+                    // drop it, don't return it to the pool
+                    closeConnection();
                 } catch (MessagingException mex) {
-                    // thrown by close()--ignore, will close() later anyway
+                    // thrown by closeConnection()--ignore
                     logger.log(Level.FINE, "close failed", mex);
                 }
                 returnCode = -1;
             } catch (StringIndexOutOfBoundsException ex) {
                 try {
-                    close();
+                    // drop it, don't return it to the pool
+                    closeConnection();
                 } catch (MessagingException mex) {
-                    // thrown by close()--ignore, will close() later anyway
+                    // thrown by closeConnection()--ignore
                     logger.log(Level.FINE, "close failed", mex);
                 }
                 returnCode = -1;
@@ -2301,9 +3111,22 @@ public class SMTPTransport extends Transport {
 
         lastServerResponse = serverResponse;
         lastReturnCode = returnCode;
+        // the relay is shutting down, don't use it for a while
+        if (returnCode == 421)
+            relayFailed();
         return returnCode;
     }
 
+    /**
+     * Don't use the relay we're connected to, if any, for a while.
+     * A pooled connection might have been made by a transport using
+     * different relays, so the relays it came from are used.
+     */
+    private void relayFailed() {
+        if (relay != null)
+            relayOwner.failed(relay);
+    }
+
     /**
      * Check if we're in the connected state.  Don't bother checking
      * whether the server is still alive, that will be detected later.
@@ -55,28 +55,45 @@ public class CRLFOutputStream extends FilterOutputStream {
         write(b, 0, b.length);
     }
 
+    /**
+     * Write the bytes, copying runs of bytes that don't need to change,
+     * including lines that already end with CRLF, to the underlying
+     * stream in one write.
+     */
     @Override
     public void write(byte b[], int off, int len) throws IOException {
         int start = off;
+        int end = off + len;
+        int lastc = lastb;
 
-        len += off;
-        for (int i = start; i < len; i++) {
-            if (b[i] == '\r') {
-                out.write(b, start, i - start);
-                writeln();
-                start = i + 1;
-            } else if (b[i] == '\n') {
-                if (lastb != '\r') {
+        for (int i = off; i < end; i++) {
+            int c = b[i];
+            if (c == '\r') {
+                if (i + 1 < end && b[i + 1] == '\n') {
+                    // already canonical, keep it in the run
+                    c = b[++i];
+                } else {
+                    out.write(b, start, i + 1 - start);
+                    out.write('\n');
+                    start = i + 1;
+                }
+            } else if (c == '\n') {
+                if (lastc == '\r') {
+                    // CR at the end of the last write was already expanded
+                    start = i + 1;
+                } else {
                     out.write(b, start, i - start);
-                    writeln();
+                    out.write('\r');
+                    start = i;    // LF starts the next run
                 }
-                start = i + 1;
             }
-            lastb = b[i];
+            lastc = c;
         }
-        if ((len - start) > 0) {
-            out.write(b, start, len - start);
-            atBOL = false;
+        if (end > start)
+            out.write(b, start, end - start);
+        if (len > 0) {
+            lastb = lastc;
+            atBOL = lastc == '\r' || lastc == '\n';
         }
     }
 
@@ -115,6 +115,32 @@ public class PropUtil {
         }
     }
 
+    /**
+     * Get an integer valued System property.
+     *
+     * @param name the property name
+     * @param def  default value if property not found
+     * @return the property value
+     * @since JavaMail 1.6.7
+     */
+    public static int getIntSystemProperty(String name, int def) {
+        try {
+            return getInt(getProp(System.getProperties(), name), def);
+        } catch (SecurityException sex) {
+            // fall through...
+        }
+
+        /*
+         * If we can't get the entire System Properties object because
+         * of a SecurityException, just ask for the specific property.
+         */
+        try {
+            return getInt(System.getProperty(name), def);
+        } catch (SecurityException sex) {
+            return def;
+        }
+    }
+
     /**
      * Get the value of the specified property.
      * If the "get" method returns null, use the getProperty method,
@@ -35,6 +35,8 @@ import java.security.PrivilegedAction;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -57,6 +59,15 @@ public class SocketFetcher {
             PropUtil.getBooleanSystemProperty("mail.socket.debug", false),
             System.out);
 
+    /*
+     * The MailSSLSocketFactory for each value of the ssl.trust property.
+     * Sharing the factories, and so their SSLContexts, allows SSL
+     * sessions to be resumed when connecting to the same server again,
+     * skipping most of the SSL handshake.
+     */
+    private static final ConcurrentMap<String, MailSSLSocketFactory>
+            trustFactories = new ConcurrentHashMap<>();
+
     // No one should instantiate this class.
     private SocketFetcher() {
     }
@@ -357,21 +368,9 @@ public class SocketFetcher {
                 !(socket instanceof SSLSocket)) {
             String trusted;
             SSLSocketFactory ssf;
-            if ((trusted = props.getProperty(prefix + ".ssl.trust")) != null) {
-                try {
-                    MailSSLSocketFactory msf = new MailSSLSocketFactory();
-                    if (trusted.equals("*"))
-                        msf.setTrustAllHosts(true);
-                    else
-                        msf.setTrustedHosts(trusted.split("\\s+"));
-                    ssf = msf;
-                } catch (GeneralSecurityException gex) {
-                    IOException ioex = new IOException(
-                            "Can't create MailSSLSocketFactory");
-                    ioex.initCause(gex);
-                    throw ioex;
-                }
-            } else if (sf instanceof SSLSocketFactory)
+            if ((trusted = props.getProperty(prefix + ".ssl.trust")) != null)
+                ssf = getTrustSocketFactory(trusted);
+            else if (sf instanceof SSLSocketFactory)
                 ssf = (SSLSocketFactory) sf;
             else
                 ssf = (SSLSocketFactory) SSLSocketFactory.getDefault();
@@ -388,6 +387,31 @@ public class SocketFetcher {
         return socket;
     }
 
+    /**
+     * Return the MailSSLSocketFactory that trusts the hosts
+     * listed in the ssl.trust property value.
+     */
+    private static SSLSocketFactory getTrustSocketFactory(String trusted)
+            throws IOException {
+        MailSSLSocketFactory msf = trustFactories.get(trusted);
+        if (msf != null)
+            return msf;
+        try {
+            msf = new MailSSLSocketFactory();
+            if (trusted.equals("*"))
+                msf.setTrustAllHosts(true);
+            else
+                msf.setTrustedHosts(trusted.split("\\s+"));
+        } catch (GeneralSecurityException gex) {
+            IOException ioex = new IOException(
+                    "Can't create MailSSLSocketFactory");
+            ioex.initCause(gex);
+            throw ioex;
+        }
+        MailSSLSocketFactory old = trustFactories.putIfAbsent(trusted, msf);
+        return old != null ? old : msf;
+    }
+
     /**
      * Return a socket factory of the specified class.
      */
@@ -515,20 +539,8 @@ public class SocketFetcher {
                 String trusted;
                 if ((trusted = props.getProperty(prefix + ".ssl.trust")) !=
                         null) {
-                    try {
-                        MailSSLSocketFactory msf = new MailSSLSocketFactory();
-                        if (trusted.equals("*"))
-                            msf.setTrustAllHosts(true);
-                        else
-                            msf.setTrustedHosts(trusted.split("\\s+"));
-                        ssf = msf;
-                        sfErr = "mail SSL socket factory";
-                    } catch (GeneralSecurityException gex) {
-                        IOException ioex = new IOException(
-                                "Can't create MailSSLSocketFactory");
-                        ioex.initCause(gex);
-                        throw ioex;
-                    }
+                    ssf = getTrustSocketFactory(trusted);
+                    sfErr = "mail SSL socket factory";
                 } else {
                     ssf = (SSLSocketFactory) SSLSocketFactory.getDefault();
                     sfErr = "default SSL socket factory";
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package com.sun.mail.util;
+
+import javax.mail.util.SharedByteArrayInputStream;
+import javax.mail.util.SharedMappedFileInputStream;
+import java.io.*;
+
+/**
+ * An OutputStream that keeps the data in memory until there's more
+ * than the threshold amount of it, and then writes all the data to a
+ * temporary file.  The data in the file can be read using a
+ * SharedInputStream.  The temporary file is deleted once it has
+ * been mapped into memory. <p>
+ *
+ * The mapping is only released when the streams reading the data
+ * have been garbage collected.  On systems that don't allow a mapped
+ * file to be deleted, such as Windows, the file is instead deleted
+ * when the JVM exits.
+ *
+ * @since JavaMail 1.6.7
+ */
+public class SpoolOutputStream extends OutputStream {
+    private final int threshold;
+    private final File dir;
+    private ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    private File file;
+    private OutputStream fos;
+
+    /**
+     * Create a SpoolOutputStream that writes the data to a temporary
+     * file if there's more than <code>threshold</code> bytes.
+     *
+     * @param threshold the most data to keep in memory
+     */
+    public SpoolOutputStream(int threshold) {
+        this(threshold, null);
+    }
+
+    /**
+     * Create a SpoolOutputStream that writes the data to a temporary
+     * file in the directory if there's more than <code>threshold</code>
+     * bytes.
+     *
+     * @param threshold the most data to keep in memory
+     * @param dir       the directory for the temporary file, or null
+     *                  to use the default temporary-file directory
+     */
+    public SpoolOutputStream(int threshold, File dir) {
+        this.threshold = threshold;
+        this.dir = dir;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (fos == null && bos.size() + 1 > threshold)
+            spool();
+        if (fos != null)
+            fos.write(b);
+        else
+            bos.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (fos == null && bos.size() + len > threshold)
+            spool();
+        if (fos != null)
+            fos.write(b, off, len);
+        else
+            bos.write(b, off, len);
+    }
+
+    /**
+     * Move the data written so far to a temporary file.
+     */
+    private void spool() throws IOException {
+        file = File.createTempFile("javamail", ".tmp", dir);
+        fos = new BufferedOutputStream(new FileOutputStream(file));
+        bos.writeTo(fos);
+        bos = null;
+    }
+
+    /**
+     * Write all the data from the InputStream.  If there's an error,
+     * the temporary file, if any, is deleted.
+     *
+     * @param is the InputStream
+     * @throws IOException for errors reading or writing the data
+     */
+    public void writeFrom(InputStream is) throws IOException {
+        byte[] buf = new byte[8192];
+        int len;
+        try {
+            while ((len = is.read(buf)) != -1)
+                write(buf, 0, len);
+        } catch (IOException | RuntimeException ex) {
+            discard();
+            throw ex;
+        }
+    }
+
+    /**
+     * Has the data been written to a temporary file?
+     *
+     * @return true if the data is in a temporary file
+     */
+    public boolean isSpooled() {
+        return file != null;
+    }
+
+    /**
+     * Return the data, if it hasn't been written to a temporary file.
+     *
+     * @return the data
+     */
+    public byte[] toByteArray() {
+        if (bos == null)
+            throw new IllegalStateException("data is in a file");
+        return bos.toByteArray();
+    }
+
+    /**
+     * Return a SharedInputStream for the data.  The stream is
+     * independent of any other streams created from it; closing
+     * it doesn't close them.
+     *
+     * @return the InputStream
+     * @throws IOException for errors reading the temporary file
+     */
+    public InputStream toStream() throws IOException {
+        if (file == null)
+            return new SharedByteArrayInputStream(bos.toByteArray());
+        try {
+            fos.close();
+            SharedMappedFileInputStream sin =
+                    new SharedMappedFileInputStream(file);
+            return sin.newStream(0, -1);
+        } finally {
+            // can't delete a mapped file on some systems
+            if (!file.delete())
+                file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Discard the data, deleting the temporary file, if any.
+     */
+    public void discard() {
+        if (file == null)
+            return;
+        try {
+            if (fos != null)
+                fos.close();
+        } catch (IOException ex) {
+            // ignore it
+        }
+        file.delete();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fos != null)
+            fos.close();
+    }
+}
@@ -81,6 +81,14 @@ public class InternetHeaders {
      */
     protected List<InternetHeader> headers;
 
+    /**
+     * The entries in the headers list, by header name, so that
+     * looking up a header doesn't need to examine every entry.
+     * Built when first needed, and kept up to date as headers are
+     * set, added, and removed.
+     */
+    private HeaderIndex index;
+
     /**
      * Create an empty InternetHeaders object.  Placeholder entries
      * are inserted to indicate the preferred order of headers.
@@ -263,22 +271,21 @@ public class InternetHeaders {
      * @return array of header values, or null if none
      */
     public String[] getHeader(String name) {
-        Iterator<InternetHeader> e = headers.iterator();
-        // XXX - should we just step through in index order?
-        List<String> v = new ArrayList<>(); // accumulate return values
-
-        while (e.hasNext()) {
-            InternetHeader h = e.next();
-            if (name.equalsIgnoreCase(h.getName()) && h.line != null) {
-                v.add(h.getValue());
-            }
+        InternetHeader first = index().get(name);
+        int n = 0;
+        for (InternetHeader h = first; h != null; h = h.next) {
+            if (h.line != null)
+                n++;
         }
-        if (v.size() == 0)
-            return (null);
-        // convert List to an array for return
-        String r[] = new String[v.size()];
-        r = v.toArray(r);
-        return (r);
+        if (n == 0)
+            return null;
+        String r[] = new String[n];
+        n = 0;
+        for (InternetHeader h = first; h != null; h = h.next) {
+            if (h.line != null)
+                r[n++] = h.getValue();
+        }
+        return r;
     }
 
     /**
@@ -294,20 +301,23 @@ public class InternetHeaders {
      * this name, or null if none
      */
     public String getHeader(String name, String delimiter) {
-        String s[] = getHeader(name);
-
-        if (s == null)
-            return null;
-
-        if ((s.length == 1) || delimiter == null)
-            return s[0];
-
-        StringBuilder r = new StringBuilder(s[0]);
-        for (int i = 1; i < s.length; i++) {
-            r.append(delimiter);
-            r.append(s[i]);
+        String first = null;
+        StringBuilder r = null;
+        for (InternetHeader h = index().get(name); h != null; h = h.next) {
+            if (h.line == null)
+                continue;
+            if (first == null) {
+                first = h.getValue();
+                if (delimiter == null)
+                    break;
+            } else {
+                if (r == null)
+                    r = new StringBuilder(first);
+                r.append(delimiter);
+                r.append(h.getValue());
+            }
         }
-        return r.toString();
+        return r != null ? r.toString() : first;
     }
 
     /**
@@ -321,29 +331,29 @@ public class InternetHeaders {
      * @param value header value
      */
     public void setHeader(String name, String value) {
-        boolean found = false;
-
-        for (int i = 0; i < headers.size(); i++) {
-            InternetHeader h = headers.get(i);
-            if (name.equalsIgnoreCase(h.getName())) {
-                if (!found) {
-                    int j;
-                    if (h.line != null && (j = h.line.indexOf(':')) >= 0) {
-                        h.line = h.line.substring(0, j + 1) + " " + value;
-                        // preserves capitalization, spacing
-                    } else {
-                        h.line = name + ": " + value;
-                    }
-                    found = true;
-                } else {
-                    headers.remove(i);
-                    i--;    // have to look at i again
-                }
-            }
+        HeaderIndex ix = index();
+        InternetHeader h = ix.get(name);
+        if (h == null) {
+            addHeader(name, value);
+            return;
         }
 
-        if (!found) {
-            addHeader(name, value);
+        int j;
+        if (h.line != null && (j = h.line.indexOf(':')) >= 0) {
+            h.line = h.line.substring(0, j + 1) + " " + value;
+            // preserves capitalization, spacing
+        } else {
+            h.line = name + ": " + value;
+        }
+        if (h.next != null) {
+            // remove all the others
+            for (Iterator<InternetHeader> e = headers.iterator(); e.hasNext(); ) {
+                InternetHeader eh = e.next();
+                if (eh != h && name.equalsIgnoreCase(eh.getName()))
+                    e.remove();
+            }
+            h.next = null;
+            ix.size = headers.size();
         }
     }
 
@@ -363,27 +373,31 @@ public class InternetHeaders {
      * @param value header value
      */
     public void addHeader(String name, String value) {
-        int pos = headers.size();
+        HeaderIndex ix = index();
+        InternetHeader first = ix.get(name);
+        InternetHeader h = new InternetHeader(name, value);
         boolean addReverse =
                 name.equalsIgnoreCase("Received") ||
                         name.equalsIgnoreCase("Return-Path");
-        if (addReverse)
-            pos = 0;
-        for (int i = headers.size() - 1; i >= 0; i--) {
-            InternetHeader h = headers.get(i);
-            if (name.equalsIgnoreCase(h.getName())) {
-                if (addReverse) {
-                    pos = i;
-                } else {
-                    headers.add(i + 1, new InternetHeader(name, value));
-                    return;
-                }
-            }
+        // InternetHeader doesn't override equals, so indexOf finds the entry
+        int pos;
+        if (addReverse) {
+            // before the first header of the same name, or at the start
+            pos = first != null ? headers.indexOf(first) : 0;
+        } else if (first != null) {
+            // after the last header of the same name
+            InternetHeader last = first;
+            while (last.next != null)
+                last = last.next;
+            pos = headers.lastIndexOf(last) + 1;
+        } else {
             // marker for default place to add new headers
-            if (!addReverse && h.getName().equals(":"))
-                pos = i;
+            InternetHeader m = ix.get(":");
+            pos = m != null ? headers.indexOf(m) : headers.size();
         }
-        headers.add(pos, new InternetHeader(name, value));
+        headers.add(pos, h);
+        ix.add(h, addReverse);
+        ix.size = headers.size();
     }
 
     /**
@@ -392,13 +406,9 @@ public class InternetHeaders {
      * @param name header name
      */
     public void removeHeader(String name) {
-        for (int i = 0; i < headers.size(); i++) {
-            InternetHeader h = headers.get(i);
-            if (name.equalsIgnoreCase(h.getName())) {
-                h.line = null;
-                // headers.remove(i);
-                // i--;    // have to look at i again
-            }
+        for (InternetHeader h = index().get(name); h != null; h = h.next) {
+            h.line = null;
+            // entries are never removed, they remain as placeholders
         }
     }
 
@@ -448,8 +458,16 @@ public class InternetHeaders {
             if (c == ' ' || c == '\t') {
                 InternetHeader h = headers.get(headers.size() - 1);
                 h.line += "\r\n" + line;
-            } else
-                headers.add(new InternetHeader(line));
+            } else {
+                InternetHeader h = new InternetHeader(line);
+                headers.add(h);
+                // while loading, the index usually hasn't been built yet
+                HeaderIndex ix = index;
+                if (ix != null && ix.isValid(headers, headers.size() - 1)) {
+                    ix.add(h, false);
+                    ix.size = headers.size();
+                }
+            }
         } catch (StringIndexOutOfBoundsException e) {
             // line is empty, ignore it
             return;
@@ -510,6 +528,8 @@ public class InternetHeaders {
          */
         String line;    // the entire RFC822 header "line",
         // or null if placeholder
+        InternetHeader next;    // next header with the same name
+        int hash;       // hash code of the name, ignoring case
 
         /**
          * Constructor that takes a line and splits out
@@ -562,6 +582,141 @@ public class InternetHeaders {
         }
     }
 
+    /**
+     * Return the index of the headers list, building it if it
+     * hasn't been built yet or if the list was changed other than
+     * by the methods of this class.  Building the index sets the
+     * <code>next</code> and <code>hash</code> fields of the entries,
+     * so it's done while holding the lock; this keeps concurrent
+     * readers, such as callers of the <code>getHeader</code> methods,
+     * from building it at the same time, and makes the entries as
+     * built visible to them.
+     */
+    private synchronized HeaderIndex index() {
+        HeaderIndex ix = index;
+        if (ix == null || !ix.isValid(headers, headers.size()))
+            index = ix = new HeaderIndex(headers);
+        return ix;
+    }
+
+    /**
+     * The entries in a headers list, including placeholders, by header
+     * name ignoring case.  The table holds the first entry for each
+     * name, and the entries for a name are linked through their
+     * <code>next</code> fields, in the same order as in the headers list.
+     * The table is an open addressing hash table, so building the index
+     * only allocates the table.
+     */
+    private static final class HeaderIndex {
+        private final List<InternetHeader> headers;    // the indexed list
+        private InternetHeader[] table;
+        private int names;    // number of names in the table
+        int size;    // size of the indexed list
+
+        HeaderIndex(List<InternetHeader> headers) {
+            this.headers = headers;
+            int n = headers.size();
+            table = new InternetHeader[tableSize(n)];
+            // add in reverse, so each entry is added at the start
+            for (ListIterator<InternetHeader> e = headers.listIterator(n);
+                 e.hasPrevious(); )
+                add(e.previous(), true);
+            size = n;
+        }
+
+        /**
+         * Is this an index of the list, which had the given size?
+         * The size catches headers added to or removed from the
+         * list by subclasses.
+         */
+        boolean isValid(List<InternetHeader> headers, int size) {
+            return this.headers == headers && this.size == size;
+        }
+
+        /**
+         * Return the first entry with the name, or null if none.
+         */
+        InternetHeader get(String name) {
+            int hash = hash(name);
+            int mask = table.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                InternetHeader h = table[i];
+                if (h == null)
+                    return null;
+                if (h.hash == hash && name.equalsIgnoreCase(h.getName()))
+                    return h;
+            }
+        }
+
+        /**
+         * Add the entry, before or after the other entries with the name.
+         */
+        void add(InternetHeader h, boolean first) {
+            String name = h.getName();
+            int hash = h.hash = hash(name);
+            int mask = table.length - 1;
+            int i = hash & mask;
+            for (; ; i = (i + 1) & mask) {
+                InternetHeader e = table[i];
+                if (e == null)
+                    break;
+                if (e.hash == hash && name.equalsIgnoreCase(e.getName())) {
+                    if (first) {
+                        h.next = e;
+                        table[i] = h;
+                    } else {
+                        while (e.next != null)
+                            e = e.next;
+                        e.next = h;
+                        h.next = null;
+                    }
+                    return;
+                }
+            }
+            h.next = null;
+            table[i] = h;
+            if (++names * 2 > table.length)
+                rehash();
+        }
+
+        private void rehash() {
+            InternetHeader[] old = table;
+            table = new InternetHeader[old.length * 2];
+            int mask = table.length - 1;
+            for (InternetHeader h : old) {
+                if (h == null)
+                    continue;
+                int i = h.hash & mask;
+                while (table[i] != null)
+                    i = (i + 1) & mask;
+                table[i] = h;
+            }
+        }
+
+        private static int tableSize(int n) {
+            int size = 16;
+            while (size < n * 2)
+                size *= 2;
+            return size;
+        }
+
+        /**
+         * A hash code consistent with <code>equalsIgnoreCase</code>.
+         */
+        private static int hash(String name) {
+            int h = 0;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c >= 'A' && c <= 'Z')
+                    c += 'a' - 'A';
+                else if (c >= 0x80)
+                    c = Character.toLowerCase(Character.toUpperCase(c));
+                h = 31 * h + c;
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+
     /*
      * The enumeration object used to enumerate an
      * InternetHeaders object.  Can return
@@ -82,6 +82,11 @@ public class MimeBodyPart extends BodyPart implements MimePart {
                     "mail.mime.ignoremultipartencoding", true);
     private static final boolean allowutf8 =
             PropUtil.getBooleanSystemProperty("mail.mime.allowutf8", true);
+    // content larger than this is spooled to a temporary file
+    static final int spoolThreshold =    // accessed by MimeMessage
+            PropUtil.getIntSystemProperty("mail.mime.spoolthreshold", -1);
+    // directory for the temporary files, null for the default
+    private static final File spoolDir = getSpoolDir();
     /**
      * The DataHandler object representing this Part's content.
      */
@@ -162,7 +167,16 @@ public class MimeBodyPart extends BodyPart implements MimePart {
             contentStream = sis.newStream(sis.getPosition(), -1);
         } else {
             try {
-                content = ASCIIUtility.getBytes(is);
+                if (spoolThreshold < 0)
+                    content = ASCIIUtility.getBytes(is);
+                else {
+                    SpoolOutputStream sos = newSpoolOutputStream();
+                    sos.writeFrom(is);
+                    if (sos.isSpooled())
+                        contentStream = sos.toStream();
+                    else
+                        content = sos.toByteArray();
+                }
             } catch (IOException ioex) {
                 throw new MessagingException("Error reading input stream", ioex);
             }
@@ -187,6 +201,23 @@ public class MimeBodyPart extends BodyPart implements MimePart {
         this.content = content;
     }
 
+    /**
+     * Return a SpoolOutputStream for content read from a stream,
+     * using the mail.mime.spoolthreshold and mail.mime.spooldir
+     * properties.  Used by MimeMessage and MimeMultipart too.
+     */
+    static SpoolOutputStream newSpoolOutputStream() {
+        return new SpoolOutputStream(spoolThreshold, spoolDir);
+    }
+
+    private static File getSpoolDir() {
+        String dir = null;
+        try {
+            dir = System.getProperty("mail.mime.spooldir");
+        } catch (SecurityException ex) {}    // ignore it
+        return dir != null && dir.length() > 0 ? new File(dir) : null;
+    }
+
     static boolean isMimeType(MimePart part, String mimeType)
             throws MessagingException {
         // XXX - lots of room for optimization here!
@@ -412,8 +443,14 @@ public class MimeBodyPart extends BodyPart implements MimePart {
     }
 
     static String getEncoding(MimePart part) throws MessagingException {
-        String s = part.getHeader("Content-Transfer-Encoding", null);
+        return getEncoding(part.getHeader("Content-Transfer-Encoding", null));
+    }
 
+    /**
+     * Extract the encoding from the value of a
+     * Content-Transfer-Encoding header.
+     */
+    static String getEncoding(String s) throws MessagingException {
         if (s == null)
             return null;
 
@@ -1188,10 +1225,11 @@ public class MimeBodyPart extends BodyPart implements MimePart {
             cachedContent = c;
             /*
              * We may abandon the input stream so make sure
-             * the MimeMultipart has consumed the stream.
+             * the MimeMultipart has consumed the stream,
+             * unless the parts can be read from a shared stream later.
              */
             if (c instanceof MimeMultipart)
-                ((MimeMultipart) c).parse();
+                ((MimeMultipart) c).parseUnshared();
         }
         return c;
     }
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package javax.mail.internet;
+
+import com.sun.mail.util.ASCIIUtility;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits the content of a multipart into its parts, without copying
+ * the data.  The stream initially returns the preamble; each call to
+ * {@link #nextPart nextPart} skips the rest of the current part, and
+ * positions the stream at the start of the next part.  At each boundary
+ * the stream returns EOF. <p>
+ *
+ * A boundary is recognized by the same rules as in MimeMultipart:
+ * it must be at the start of a line, and followed by "--" or by
+ * optional white space and the end of the line.  The end of line
+ * preceeding the boundary isn't part of the data.  The boundary is
+ * found using the same Boyer-Moore search, in a buffer that only
+ * holds the data that hasn't been read yet and the next few bytes
+ * needed to decide whether they're a boundary, so parts of any size
+ * are split using a constant amount of memory.
+ *
+ * @since JavaMail 1.6.7
+ */
+final class MimeBoundaryInputStream extends InputStream {
+    private final InputStream in;
+    private final byte[] bnd;    // "--" + boundary
+    private final int[] bcs;    // Bad Character Shift table
+    private final int[] gss;    // Good Suffix Shift table
+
+    private byte[] buf = new byte[8192];
+    private int pos;        // next byte to return
+    private int safe;       // bytes before here are part of the data
+    private int limit;      // end of valid data in buf
+    private int scan;       // where to look for the next boundary
+    private int partStart;  // start of the current part, may be negative
+    private int bndEnd = -1;    // if >= 0, a boundary line ends here
+    private boolean last;   // the boundary is the closing boundary
+    private boolean eof;    // no more data from in
+    private int markPos = -1;
+    private int markLimit;
+
+    // maximum white space allowed after a boundary
+    private static final int MAX_LWSP = 1000;
+
+    /**
+     * Create a stream that splits the data read from <code>in</code>
+     * at the boundary.
+     *
+     * @param in       the content of the multipart
+     * @param boundary the boundary parameter of the Content-Type
+     */
+    MimeBoundaryInputStream(InputStream in, String boundary) {
+        this.in = in;
+        bnd = ASCIIUtility.getBytes("--" + boundary);
+        bcs = MimeMultipart.badCharacterShift(bnd);
+        gss = MimeMultipart.goodSuffixShift(bnd);
+        if (buf.length < bnd.length * 2)
+            buf = new byte[bnd.length * 2];
+    }
+
+    /**
+     * Skip the rest of the current part and the following boundary.
+     * Returns false if there are no more parts, because the closing
+     * boundary was seen or the data ended without a boundary.
+     *
+     * @return true if positioned at the start of the next part
+     * @throws IOException for I/O errors
+     */
+    boolean nextPart() throws IOException {
+        while (ensure())
+            pos = safe;
+        if (bndEnd < 0 || last)
+            return false;
+        pos = safe = scan = partStart = bndEnd;
+        bndEnd = -1;
+        markPos = -1;
+        return true;
+    }
+
+    /**
+     * Was the current part ended by the closing boundary?
+     * False if the data ended without a closing boundary.
+     */
+    boolean isComplete() {
+        return last;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensure())
+            return -1;
+        return buf[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!ensure())
+            return -1;
+        int n = Math.min(len, safe - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || !ensure())
+            return 0;
+        int k = (int) Math.min(n, safe - pos);
+        pos += k;
+        return k;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return safe - pos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+        markPos = pos;
+        markLimit = readlimit;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        if (markPos < 0)
+            throw new IOException("Resetting to invalid mark");
+        pos = markPos;
+    }
+
+    /**
+     * Closing the stream doesn't close the underlying stream.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Make sure there's data before the next boundary to return.
+     * Returns false at a boundary or at the end of the data.
+     */
+    private boolean ensure() throws IOException {
+        while (pos >= safe) {
+            if (bndEnd >= 0 || (eof && safe == limit))
+                return false;
+            search();
+            if (pos >= safe && bndEnd < 0 && !eof)
+                fill();
+        }
+        return true;
+    }
+
+    /**
+     * Look for a boundary in the buffered data, moving safe
+     * up to the boundary or as far as it's known there's no boundary.
+     */
+    private void search() {
+        int lo = Math.max(partStart, 0);
+        for (; ; ) {
+            int m = find();
+            if (m < 0) {
+                // the last bytes might start a boundary, or be the
+                // end of line before one, unless there's no more data
+                safe = eof ? limit : Math.max(safe, scan - 2);
+                return;
+            }
+            // a boundary must be preceeded by an end of line,
+            // unless it starts the part
+            int eolLen = 0;
+            if (m != partStart) {
+                int b = m - 1 >= lo ? buf[m - 1] : -1;
+                if (b == '\r' || b == '\n') {
+                    eolLen = 1;
+                    if (b == '\n' && m - 2 >= lo && buf[m - 2] == '\r')
+                        eolLen = 2;
+                }
+                if (eolLen == 0) {
+                    scan = m + 1;
+                    continue;
+                }
+            }
+            int end = boundaryEnd(m + bnd.length);
+            if (end == -2) {    // need more data to decide
+                safe = Math.max(safe, m - eolLen);
+                scan = m;
+                return;
+            }
+            if (end == -1) {    // not a boundary
+                scan = m + 1;
+                continue;
+            }
+            safe = m - eolLen;
+            bndEnd = end;
+            return;
+        }
+    }
+
+    /**
+     * Find the next occurrence of the boundary bytes, starting at scan.
+     * If not found, returns -1 and sets scan to where the next
+     * occurrence might start.
+     */
+    private int find() {
+        int bl = bnd.length;
+        int m = scan;
+        while (m + bl <= limit) {
+            int i;
+            for (i = bl - 1; i >= 0; i--) {
+                if (buf[m + i] != bnd[i])
+                    break;
+            }
+            if (i < 0)    // matched all bytes
+                return m;
+            // compute how many bytes we can skip
+            m += Math.max(i + 1 - bcs[buf[m + i] & 0xff], gss[i]);
+        }
+        scan = m;
+        return -1;
+    }
+
+    /**
+     * Check what follows the boundary bytes, starting at i.
+     * Returns the end of the boundary line, -1 if it's not a
+     * boundary line, or -2 if more data is needed to decide.
+     */
+    private int boundaryEnd(int i) {
+        if (i + 2 > limit && !eof)
+            return -2;
+        if (i + 2 <= limit && buf[i] == '-' && buf[i + 1] == '-') {
+            last = true;
+            return i + 2;    // ignore trailing text
+        }
+        // skip linear whitespace
+        int start = i;
+        while (i < limit && (buf[i] == ' ' || buf[i] == '\t')) {
+            if (i - start > MAX_LWSP)
+                return -1;
+            i++;
+        }
+        if (i == limit)
+            return eof ? -1 : -2;
+        // check for end of line
+        if (buf[i] == '\n')
+            return i + 1;
+        if (buf[i] == '\r') {
+            if (i + 1 == limit)
+                return eof ? i + 1 : -2;
+            return buf[i + 1] == '\n' ? i + 2 : i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Read more data into the buffer, discarding the data
+     * that's been read, except for any marked data.
+     */
+    private void fill() throws IOException {
+        int keep = pos;
+        if (markPos >= 0) {
+            if (pos - markPos > markLimit)
+                markPos = -1;
+            else
+                keep = markPos;
+        }
+        if (keep > 0) {
+            System.arraycopy(buf, keep, buf, 0, limit - keep);
+            pos -= keep;
+            safe -= keep;
+            scan -= keep;
+            limit -= keep;
+            partStart -= keep;
+            if (markPos >= 0)
+                markPos -= keep;
+        }
+        if (limit == buf.length)
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0)
+            eof = true;
+        else
+            limit += n;
+    }
+}
@@ -321,7 +321,17 @@ public class MimeMessage extends Message implements MimePart {
             contentStream = sis.newStream(sis.getPosition(), -1);
         } else {
             try {
-                content = ASCIIUtility.getBytes(is);
+                if (MimeBodyPart.spoolThreshold < 0)
+                    content = ASCIIUtility.getBytes(is);
+                else {
+                    SpoolOutputStream sos =
+                            MimeBodyPart.newSpoolOutputStream();
+                    sos.writeFrom(is);
+                    if (sos.isSpooled())
+                        contentStream = sos.toStream();
+                    else
+                        content = sos.toByteArray();
+                }
             } catch (IOException ioex) {
                 throw new MessagingException("IOException", ioex);
             }
@@ -1470,10 +1480,11 @@ public class MimeMessage extends Message implements MimePart {
             cachedContent = c;
             /*
              * We may abandon the input stream so make sure
-             * the MimeMultipart has consumed the stream.
+             * the MimeMultipart has consumed the stream,
+             * unless the parts can be read from a shared stream later.
              */
             if (c instanceof MimeMultipart)
-                ((MimeMultipart) c).parse();
+                ((MimeMultipart) c).parseUnshared();
         }
         return c;
     }
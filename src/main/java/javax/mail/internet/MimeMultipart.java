@@ -20,6 +20,7 @@ import com.sun.mail.util.ASCIIUtility;
 import com.sun.mail.util.LineInputStream;
 import com.sun.mail.util.LineOutputStream;
 import com.sun.mail.util.PropUtil;
+import com.sun.mail.util.SpoolOutputStream;
 
 import javax.activation.DataSource;
 import javax.mail.*;
@@ -156,17 +157,31 @@ public class MimeMultipart extends Multipart {
      */
     protected boolean allowEmpty = false;
 
+    /**
+     * The parser, while the parts are being parsed.
+     */
+    private PartParser parser;
+
     /**
      * Constructor a MimeMultipart object from the given MimeMultipart.
      *
      * @param multipart the MimeMultipart to copy
      */
     protected MimeMultipart(MimeMultipart multipart) {
+        // the parser belongs to the original, so finish parsing first
+        if (multipart.parser != null) {
+            try {
+                multipart.parse();
+            } catch (MessagingException ex) {
+                // the parts were discarded, the copy will parse them again
+            }
+        }
         this.parts = multipart.parts;
         this.contentType = multipart.contentType;
         this.parent = multipart.parent;
         this.ds = multipart.ds;
         this.parsed = multipart.parsed;
+        this.preamble = multipart.preamble;
         this.complete = multipart.complete;
         this.ignoreMissingEndBoundary = multipart.ignoreMissingEndBoundary;
         this.ignoreMissingBoundaryParameter = multipart.ignoreMissingBoundaryParameter;
@@ -382,7 +397,7 @@ public class MimeMultipart extends Multipart {
     @Override
     public synchronized BodyPart getBodyPart(int index)
             throws MessagingException {
-        parse();
+        parseTo(index);
         return super.getBodyPart(index);
     }
 
@@ -396,11 +411,11 @@ public class MimeMultipart extends Multipart {
      */
     public synchronized BodyPart getBodyPart(String CID)
             throws MessagingException {
-        parse();
-
-        int count = getCount();
-        for (int i = 0; i < count; i++) {
-            MimeBodyPart part = (MimeBodyPart) getBodyPart(i);
+        for (int i = 0; ; i++) {
+            parseTo(i);
+            if (i >= parts.size())
+                break;
+            MimeBodyPart part = (MimeBodyPart) parts.elementAt(i);
             String s = part.getContentID();
             if (s != null && s.equals(CID))
                 return part;
@@ -511,7 +526,7 @@ public class MimeMultipart extends Multipart {
      * @since JavaMail 1.4
      */
     public synchronized String getPreamble() throws MessagingException {
-        parse();
+        parseTo(-1);    // the preamble is read before the first part
         return preamble;
     }
 
@@ -609,7 +624,14 @@ public class MimeMultipart extends Multipart {
      * method is called by all other methods that need data for
      * the body parts, to make sure the data has been parsed.
      * The {@link #initializeProperties} method is called before
-     * parsing the data.
+     * parsing the data. <p>
+     *
+     * If the DataSource provides a
+     * {@link SharedInputStream},
+     * the {@link #getBodyPart(int) getBodyPart} methods only parse
+     * as far as the part they return, keeping the stream open until
+     * the parsing is completed by this method or by reading the last part.
+     * Other streams are always parsed completely, and closed.
      *
      * @throws ParseException     for failures parsing the message
      * @throws MessagingException for other failures
@@ -618,39 +640,158 @@ public class MimeMultipart extends Multipart {
     protected synchronized void parse() throws MessagingException {
         if (parsed)
             return;
+        parseParts(Integer.MAX_VALUE);
+    }
 
-        initializeProperties();
+    /**
+     * Parse until the part at the index has been parsed, or until all
+     * the parts have been parsed.  The parser keeps its position in the
+     * SharedInputStream, so parsing resumes where it stopped; data that
+     * isn't in a SharedInputStream is parsed completely, so the stream
+     * isn't left open.  If a subclass
+     * overrides the parse method, the data is always parsed completely,
+     * using that method.
+     */
+    private void parseTo(int index) throws MessagingException {
+        if (parsed)
+            return;
+        if (parser == null && parseOverridden())
+            parse();
+        else
+            parseParts(index);
+    }
 
-        InputStream in = null;
-        SharedInputStream sin = null;
-        long start = 0, end = 0;
+    /**
+     * Parse the parts up to and including the part at the index.
+     */
+    private void parseParts(int index) throws MessagingException {
+        PartParser p = parser;
+        try {
+            if (p == null) {
+                initializeProperties();
+                p = parser = new PartParser();
+            }
+            // don't leave a stream the parts don't refer to open
+            if (p.sin == null)
+                index = Integer.MAX_VALUE;
+            while (!p.done && parts.size() <= index)
+                p.parsePart();
+        } catch (MessagingException | RuntimeException ex) {
+            // the parser has closed the stream, start again next time
+            parser = null;
+            parts.removeAllElements();
+            throw ex;
+        }
+        if (p.done) {
+            complete = p.complete;
+            parsed = true;
+            parser = null;
+        }
+    }
+
+    /**
+     * If the data isn't in a SharedInputStream, parse it completely,
+     * so that the parts don't depend on the InputStream.  Otherwise,
+     * the parts are parsed when they're needed.
+     */
+    synchronized void parseUnshared() throws MessagingException {
+        parseTo(-1);    // parses it all if the stream isn't shared
+    }
 
+    /**
+     * Does a subclass override the parse method?
+     */
+    private boolean parseOverridden() {
         try {
-            in = ds.getInputStream();
-            if (!(in instanceof ByteArrayInputStream) &&
-                    !(in instanceof BufferedInputStream) &&
-                    !(in instanceof SharedInputStream))
-                in = new BufferedInputStream(in);
-        } catch (Exception ex) {
-            throw new MessagingException("No inputstream from datasource", ex);
+            for (Class<?> c = getClass(); c != MimeMultipart.class;
+                 c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("parse");
+                    return true;
+                } catch (NoSuchMethodException ex) {
+                    // keep looking
+                }
+            }
+            return false;
+        } catch (SecurityException ex) {
+            return true;    // assume it does
         }
-        if (in instanceof SharedInputStream)
-            sin = (SharedInputStream) in;
+    }
 
-        ContentType cType = new ContentType(contentType);
-        String boundary = null;
-        if (!ignoreExistingBoundaryParameter) {
-            String bp = cType.getParameter("boundary");
-            if (bp != null)
-                boundary = "--" + bp;
+    /**
+     * Parses the body parts from the InputStream one at a time,
+     * keeping its place in the InputStream between parts.
+     */
+    private final class PartParser {
+        private InputStream in;
+        private SharedInputStream sin;
+        private LineInputStream lin;
+        private byte[] bndbytes;
+        private int[] bcs;
+        private int[] gss;
+        boolean done;
+        boolean complete = true;
+
+        /**
+         * Open the InputStream, skip and save the preamble.
+         */
+        PartParser() throws MessagingException {
+            try {
+                in = ds.getInputStream();
+                if (!(in instanceof ByteArrayInputStream) &&
+                        !(in instanceof BufferedInputStream) &&
+                        !(in instanceof SharedInputStream))
+                    in = new BufferedInputStream(in);
+            } catch (Exception ex) {
+                throw new MessagingException("No inputstream from datasource", ex);
+            }
+            if (!(in instanceof SharedInputStream) &&
+                    MimeBodyPart.spoolThreshold >= 0) {
+                /*
+                 * Copy the multipart to a SharedInputStream, in a
+                 * temporary file if it's large, so the parts can refer
+                 * to the copied data rather than each having its own
+                 * copy of its data.
+                 */
+                SpoolOutputStream sos =
+                        MimeBodyPart.newSpoolOutputStream();
+                try {
+                    sos.writeFrom(in);
+                    in.close();
+                    in = sos.toStream();
+                } catch (IOException ioex) {
+                    close();
+                    throw new MessagingException("IO Error", ioex);
+                }
+            }
+            if (in instanceof SharedInputStream)
+                sin = (SharedInputStream) in;
+
+            try {
+                start();
+            } catch (IOException ioex) {
+                close();
+                throw new MessagingException("IO Error", ioex);
+            } catch (MessagingException mex) {
+                close();
+                throw mex;
+            }
         }
-        if (boundary == null && !ignoreMissingBoundaryParameter &&
-                !ignoreExistingBoundaryParameter)
-            throw new ParseException("Missing boundary parameter");
 
-        try {
+        private void start() throws IOException, MessagingException {
+            ContentType cType = new ContentType(contentType);
+            String boundary = null;
+            if (!ignoreExistingBoundaryParameter) {
+                String bp = cType.getParameter("boundary");
+                if (bp != null)
+                    boundary = "--" + bp;
+            }
+            if (boundary == null && !ignoreMissingBoundaryParameter &&
+                    !ignoreExistingBoundaryParameter)
+                throw new ParseException("Missing boundary parameter");
+
             // Skip and save the preamble
-            LineInputStream lin = new LineInputStream(in);
+            lin = new LineInputStream(in);
             StringBuilder preamblesb = null;
             String line;
             while ((line = lin.readLine()) != null) {
@@ -720,242 +861,281 @@ public class MimeMultipart extends Multipart {
                 preamble = preamblesb.toString();
 
             if (line == null) {
-                if (allowEmpty)
+                if (allowEmpty) {
+                    complete = true;
+                    finish();
                     return;
-                else
+                } else
                     throw new ParseException("Missing start boundary");
             }
 
             // save individual boundary bytes for comparison later
-            byte[] bndbytes = ASCIIUtility.getBytes(boundary);
-            int bl = bndbytes.length;
+            bndbytes = ASCIIUtility.getBytes(boundary);
 
             /*
              * Compile Boyer-Moore parsing tables.
              */
+            bcs = badCharacterShift(bndbytes);
+            gss = goodSuffixShift(bndbytes);
+        }
 
-            // initialize Bad Character Shift table
-            int[] bcs = new int[256];
-            for (int i = 0; i < bl; i++)
-                bcs[bndbytes[i] & 0xff] = i + 1;
-
-            // initialize Good Suffix Shift table
-            int[] gss = new int[bl];
-            NEXT:
-            for (int i = bl; i > 0; i--) {
-                int j;    // the beginning index of the suffix being considered
-                for (j = bl - 1; j >= i; j--) {
-                    // Testing for good suffix
-                    if (bndbytes[j] == bndbytes[j - i]) {
-                        // bndbytes[j..len] is a good suffix
-                        gss[j - 1] = i;
-                    } else {
-                        // No match. The array has already been
-                        // filled up with correct values before.
-                        continue NEXT;
-                    }
-                }
-                while (j > 0)
-                    gss[--j] = i;
+        /**
+         * Read and process the next body part, setting done
+         * if we see the terminating boundary line (or EOF).
+         */
+        void parsePart() throws MessagingException {
+            try {
+                if (!readPart())
+                    finish();
+            } catch (IOException ioex) {
+                close();
+                throw new MessagingException("IO Error", ioex);
+            } catch (MessagingException mex) {
+                close();
+                throw mex;
             }
-            gss[bl - 1] = 1;
+        }
 
-            /*
-             * Read and process body parts until we see the
-             * terminating boundary line (or EOF).
-             */
+        private boolean readPart() throws IOException, MessagingException {
+            int bl = bndbytes.length;
+            long start = 0, end = 0;
+            String line;
             boolean done = false;
-            getparts:
-            while (!done) {
-                InternetHeaders headers = null;
-                if (sin != null) {
-                    start = sin.getPosition();
-                    // skip headers
-                    while ((line = lin.readLine()) != null && line.length() > 0)
-                        ;
-                    if (line == null) {
-                        if (!ignoreMissingEndBoundary)
-                            throw new ParseException(
-                                    "missing multipart end boundary");
-                        // assume there's just a missing end boundary
-                        complete = false;
-                        break getparts;
-                    }
-                } else {
-                    // collect the headers for this body part
-                    headers = createInternetHeaders(in);
+
+            InternetHeaders headers = null;
+            if (sin != null) {
+                start = sin.getPosition();
+                // skip headers
+                while ((line = lin.readLine()) != null && line.length() > 0)
+                    ;
+                if (line == null) {
+                    if (!ignoreMissingEndBoundary)
+                        throw new ParseException(
+                                "missing multipart end boundary");
+                    // assume there's just a missing end boundary
+                    complete = false;
+                    return false;
                 }
+            } else {
+                // collect the headers for this body part
+                headers = createInternetHeaders(in);
+            }
 
-                if (!in.markSupported())
-                    throw new MessagingException("Stream doesn't support mark");
+            if (!in.markSupported())
+                throw new MessagingException("Stream doesn't support mark");
 
-                ByteArrayOutputStream buf = null;
-                // if we don't have a shared input stream, we copy the data
-                if (sin == null)
-                    buf = new ByteArrayOutputStream();
-                else
-                    end = sin.getPosition();
-                int b;
+            ByteArrayOutputStream buf = null;
+            // if we don't have a shared input stream, we copy the data
+            if (sin == null)
+                buf = new ByteArrayOutputStream();
+            else
+                end = sin.getPosition();
+            int b;
 
-                /*
-                 * These buffers contain the bytes we're checking
-                 * for a match.  inbuf is the current buffer and
-                 * previnbuf is the previous buffer.  We need the
-                 * previous buffer to check that we're preceeded
-                 * by an EOL.
-                 */
-                // XXX - a smarter algorithm would use a sliding window
-                //	 over a larger buffer
-                byte[] inbuf = new byte[bl];
-                byte[] previnbuf = new byte[bl];
-                int inSize = 0;        // number of valid bytes in inbuf
-                int prevSize = 0;    // number of valid bytes in previnbuf
-                int eolLen;
-                boolean first = true;
+            /*
+             * These buffers contain the bytes we're checking
+             * for a match.  inbuf is the current buffer and
+             * previnbuf is the previous buffer.  We need the
+             * previous buffer to check that we're preceeded
+             * by an EOL.
+             */
+            // XXX - a smarter algorithm would use a sliding window
+            //	 over a larger buffer
+            byte[] inbuf = new byte[bl];
+            byte[] previnbuf = new byte[bl];
+            int inSize = 0;        // number of valid bytes in inbuf
+            int prevSize = 0;    // number of valid bytes in previnbuf
+            int eolLen;
+            boolean first = true;
 
-                /*
-                 * Read and save the content bytes in buf.
-                 */
-                for (; ; ) {
-                    in.mark(bl + 4 + 1000); // bnd + "--\r\n" + lots of LWSP
-                    eolLen = 0;
-                    inSize = readFully(in, inbuf, 0, bl);
-                    if (inSize < bl) {
-                        // hit EOF
-                        if (!ignoreMissingEndBoundary)
-                            throw new ParseException(
-                                    "missing multipart end boundary");
-                        if (sin != null)
-                            end = sin.getPosition();
-                        complete = false;
-                        done = true;
+            /*
+             * Read and save the content bytes in buf.
+             */
+            for (; ; ) {
+                in.mark(bl + 4 + 1000); // bnd + "--\r\n" + lots of LWSP
+                eolLen = 0;
+                inSize = readFully(in, inbuf, 0, bl);
+                if (inSize < bl) {
+                    // hit EOF
+                    if (!ignoreMissingEndBoundary)
+                        throw new ParseException(
+                                "missing multipart end boundary");
+                    if (sin != null)
+                        end = sin.getPosition();
+                    complete = false;
+                    done = true;
+                    break;
+                }
+                // check whether inbuf contains a boundary string
+                int i;
+                for (i = bl - 1; i >= 0; i--) {
+                    if (inbuf[i] != bndbytes[i])
                         break;
-                    }
-                    // check whether inbuf contains a boundary string
-                    int i;
-                    for (i = bl - 1; i >= 0; i--) {
-                        if (inbuf[i] != bndbytes[i])
-                            break;
-                    }
-                    if (i < 0) {    // matched all bytes
-                        eolLen = 0;
-                        if (!first) {
-                            // working backwards, find out if we were preceeded
-                            // by an EOL, and if so find its length
-                            b = previnbuf[prevSize - 1];
-                            if (b == '\r' || b == '\n') {
-                                eolLen = 1;
-                                if (b == '\n' && prevSize >= 2) {
-                                    b = previnbuf[prevSize - 2];
-                                    if (b == '\r')
-                                        eolLen = 2;
-                                }
+                }
+                if (i < 0) {    // matched all bytes
+                    eolLen = 0;
+                    if (!first) {
+                        // working backwards, find out if we were preceeded
+                        // by an EOL, and if so find its length
+                        b = previnbuf[prevSize - 1];
+                        if (b == '\r' || b == '\n') {
+                            eolLen = 1;
+                            if (b == '\n' && prevSize >= 2) {
+                                b = previnbuf[prevSize - 2];
+                                if (b == '\r')
+                                    eolLen = 2;
                             }
                         }
-                        if (first || eolLen > 0) {    // yes, preceed by EOL
-                            if (sin != null) {
-                                // update "end", in case this really is
-                                // a valid boundary
-                                end = sin.getPosition() - bl - eolLen;
-                            }
-                            // matched the boundary, check for last boundary
-                            int b2 = in.read();
-                            if (b2 == '-') {
-                                if (in.read() == '-') {
-                                    complete = true;
-                                    done = true;
-                                    break;    // ignore trailing text
-                                }
-                            }
-                            // skip linear whitespace
-                            while (b2 == ' ' || b2 == '\t')
-                                b2 = in.read();
-                            // check for end of line
-                            if (b2 == '\n')
-                                break;    // got it!  break out of the loop
-                            if (b2 == '\r') {
-                                in.mark(1);
-                                if (in.read() != '\n')
-                                    in.reset();
-                                break;    // got it!  break out of the loop
+                    }
+                    if (first || eolLen > 0) {    // yes, preceed by EOL
+                        if (sin != null) {
+                            // update "end", in case this really is
+                            // a valid boundary
+                            end = sin.getPosition() - bl - eolLen;
+                        }
+                        // matched the boundary, check for last boundary
+                        int b2 = in.read();
+                        if (b2 == '-') {
+                            if (in.read() == '-') {
+                                complete = true;
+                                done = true;
+                                break;    // ignore trailing text
                             }
                         }
-                        i = 0;
-                    }
-
-                    /*
-                     * Get here if boundary didn't match,
-                     * wasn't preceeded by EOL, or wasn't
-                     * followed by whitespace or EOL.
-                     */
-
-                    // compute how many bytes we can skip
-                    int skip = Math.max(i + 1 - bcs[inbuf[i] & 0x7f], gss[i]);
-                    // want to keep at least two characters
-                    if (skip < 2) {
-                        // only skipping one byte, save one byte
-                        // from previous buffer as well
-                        // first, write out bytes we're done with
-                        if (sin == null && prevSize > 1)
-                            buf.write(previnbuf, 0, prevSize - 1);
-                        in.reset();
-                        skipFully(in, 1);
-                        if (prevSize >= 1) {    // is there a byte to save?
-                            // yes, save one from previous and one from current
-                            previnbuf[0] = previnbuf[prevSize - 1];
-                            previnbuf[1] = inbuf[0];
-                            prevSize = 2;
-                        } else {
-                            // no previous bytes to save, can only save current
-                            previnbuf[0] = inbuf[0];
-                            prevSize = 1;
+                        // skip linear whitespace
+                        while (b2 == ' ' || b2 == '\t')
+                            b2 = in.read();
+                        // check for end of line
+                        if (b2 == '\n')
+                            break;    // got it!  break out of the loop
+                        if (b2 == '\r') {
+                            in.mark(1);
+                            if (in.read() != '\n')
+                                in.reset();
+                            break;    // got it!  break out of the loop
                         }
-                    } else {
-                        // first, write out data from previous buffer before
-                        // we dump it
-                        if (prevSize > 0 && sin == null)
-                            buf.write(previnbuf, 0, prevSize);
-                        // all the bytes we're skipping are saved in previnbuf
-                        prevSize = skip;
-                        in.reset();
-                        skipFully(in, prevSize);
-                        // swap buffers
-                        byte[] tmp = inbuf;
-                        inbuf = previnbuf;
-                        previnbuf = tmp;
                     }
-                    first = false;
+                    i = 0;
                 }
 
                 /*
-                 * Create a MimeBody element to represent this body part.
+                 * Get here if boundary didn't match,
+                 * wasn't preceeded by EOL, or wasn't
+                 * followed by whitespace or EOL.
                  */
-                MimeBodyPart part;
-                if (sin != null) {
-                    part = createMimeBodyPartIs(sin.newStream(start, end));
+
+                // compute how many bytes we can skip
+                int skip = Math.max(i + 1 - bcs[inbuf[i] & 0x7f], gss[i]);
+                // want to keep at least two characters
+                if (skip < 2) {
+                    // only skipping one byte, save one byte
+                    // from previous buffer as well
+                    // first, write out bytes we're done with
+                    if (sin == null && prevSize > 1)
+                        buf.write(previnbuf, 0, prevSize - 1);
+                    in.reset();
+                    skipFully(in, 1);
+                    if (prevSize >= 1) {    // is there a byte to save?
+                        // yes, save one from previous and one from current
+                        previnbuf[0] = previnbuf[prevSize - 1];
+                        previnbuf[1] = inbuf[0];
+                        prevSize = 2;
+                    } else {
+                        // no previous bytes to save, can only save current
+                        previnbuf[0] = inbuf[0];
+                        prevSize = 1;
+                    }
                 } else {
-                    // write out data from previous buffer, not including EOL
-                    if (prevSize - eolLen > 0)
-                        buf.write(previnbuf, 0, prevSize - eolLen);
-                    // if we didn't find a trailing boundary,
-                    // the current buffer has data we need too
-                    if (!complete && inSize > 0)
-                        buf.write(inbuf, 0, inSize);
-                    part = createMimeBodyPart(headers, buf.toByteArray());
+                    // first, write out data from previous buffer before
+                    // we dump it
+                    if (prevSize > 0 && sin == null)
+                        buf.write(previnbuf, 0, prevSize);
+                    // all the bytes we're skipping are saved in previnbuf
+                    prevSize = skip;
+                    in.reset();
+                    skipFully(in, prevSize);
+                    // swap buffers
+                    byte[] tmp = inbuf;
+                    inbuf = previnbuf;
+                    previnbuf = tmp;
                 }
-                super.addBodyPart(part);
+                first = false;
             }
-        } catch (IOException ioex) {
-            throw new MessagingException("IO Error", ioex);
-        } finally {
+
+            /*
+             * Create a MimeBody element to represent this body part.
+             */
+            MimeBodyPart part;
+            if (sin != null) {
+                part = createMimeBodyPartIs(sin.newStream(start, end));
+            } else {
+                // write out data from previous buffer, not including EOL
+                if (prevSize - eolLen > 0)
+                    buf.write(previnbuf, 0, prevSize - eolLen);
+                // if we didn't find a trailing boundary,
+                // the current buffer has data we need too
+                if (!complete && inSize > 0)
+                    buf.write(inbuf, 0, inSize);
+                part = createMimeBodyPart(headers, buf.toByteArray());
+            }
+            MimeMultipart.super.addBodyPart(part);
+            return !done;
+        }
+
+        /**
+         * All the parts have been parsed.
+         */
+        private void finish() {
+            done = true;
+            close();
+        }
+
+        void close() {
             try {
                 in.close();
             } catch (IOException cex) {
                 // ignore
             }
         }
+    }
 
-        parsed = true;
+    /**
+     * Compile the Bad Character Shift table used by the Boyer-Moore
+     * search for the boundary.
+     */
+    static int[] badCharacterShift(byte[] bndbytes) {
+        int[] bcs = new int[256];
+        for (int i = 0; i < bndbytes.length; i++)
+            bcs[bndbytes[i] & 0xff] = i + 1;
+        return bcs;
+    }
+
+    /**
+     * Compile the Good Suffix Shift table used by the Boyer-Moore
+     * search for the boundary.
+     */
+    static int[] goodSuffixShift(byte[] bndbytes) {
+        int bl = bndbytes.length;
+        int[] gss = new int[bl];
+        NEXT:
+        for (int i = bl; i > 0; i--) {
+            int j;    // the beginning index of the suffix being considered
+            for (j = bl - 1; j >= i; j--) {
+                // Testing for good suffix
+                if (bndbytes[j] == bndbytes[j - i]) {
+                    // bndbytes[j..len] is a good suffix
+                    gss[j - 1] = i;
+                } else {
+                    // No match. The array has already been
+                    // filled up with correct values before.
+                    continue NEXT;
+                }
+            }
+            while (j > 0)
+                gss[--j] = i;
+        }
+        gss[bl - 1] = 1;
+        return gss;
     }
 
     /**
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package javax.mail.internet;
+
+import javax.mail.MessagingException;
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * A pull parser for MIME messages, that reports the structure of the
+ * message as a sequence of events, without creating MimeBodyPart
+ * objects or copying the content of the parts.  For example, to list
+ * the attachments of a message:
+ * <blockquote><pre>
+ * 	MimeStreamParser p = new MimeStreamParser(in);
+ * 	while (p.hasNext()) {
+ * 	    if (p.next() == MimeStreamParser.BODY) {
+ * 		String fn = p.getHeaders().getHeader("Content-Disposition", null);
+ * 		InputStream is = p.getInputStream();	// decoded content
+ * 		...
+ * 	    }
+ * 	}
+ * 	p.close();
+ * </pre></blockquote>
+ * Each part, starting with the message itself, produces a START_PART
+ * event, when the headers of the part are available.  A multipart
+ * produces the events for each of its body parts, a message/rfc822
+ * part produces the events for the enclosed message, and any other part
+ * produces a BODY event, when the content of the part can be read.
+ * The part ends with an END_PART event. <p>
+ *
+ * The content is read from the input stream as the parser advances,
+ * so only the content of the current part can be read, and only until
+ * the next call to {@link #next next}.  Content that isn't read is
+ * skipped.  Since the parser only buffers the data near the current
+ * position, messages of any size and depth are parsed using a constant
+ * amount of memory.  The preamble and epilogue of multiparts are skipped.
+ * Multiparts without a boundary parameter are treated as any other part.
+ *
+ * @see MimeMultipart
+ * @since JavaMail 1.6.7
+ */
+public class MimeStreamParser implements Closeable {
+
+    /**
+     * The start of a part.  The headers of the part are available.
+     */
+    public static final int START_PART = 1;
+    /**
+     * The content of a part that contains no other parts.  The content
+     * is available from the {@link #getInputStream getInputStream} method.
+     */
+    public static final int BODY = 2;
+    /**
+     * The end of a part.
+     */
+    public static final int END_PART = 3;
+
+    private final InputStream in;
+    private final boolean allowutf8;
+    private Part current;
+    private int event;
+    private BodyInputStream body;    // stream returned for BODY
+
+    /**
+     * The state of a part being parsed.
+     */
+    private static final class Part {
+        final Part parent;
+        final InputStream data;    // the content, following the headers
+        final InternetHeaders headers;
+        final String contentType;
+        MimeBoundaryInputStream parts;    // if a multipart
+
+        Part(Part parent, InputStream data, InternetHeaders headers,
+             String contentType) {
+            this.parent = parent;
+            this.data = data;
+            this.headers = headers;
+            this.contentType = contentType;
+        }
+    }
+
+    /**
+     * Create a parser for the message read from the input stream.
+     *
+     * @param is the message, starting with its headers
+     */
+    public MimeStreamParser(InputStream is) {
+        this(is, false);
+    }
+
+    /**
+     * Create a parser for the message read from the input stream.
+     *
+     * @param is        the message, starting with its headers
+     * @param allowutf8 if UTF-8 encoded headers are allowed
+     */
+    public MimeStreamParser(InputStream is, boolean allowutf8) {
+        if (!is.markSupported())
+            is = new BufferedInputStream(is);
+        this.in = is;
+        this.allowutf8 = allowutf8;
+    }
+
+    /**
+     * Are there more events?  False after the END_PART event
+     * for the message.
+     *
+     * @return true if there are more events
+     */
+    public boolean hasNext() {
+        return event != END_PART || current.parent != null;
+    }
+
+    /**
+     * Advance to the next event.  Any content of the current part
+     * that hasn't been read is skipped.
+     *
+     * @return the event, START_PART, BODY, or END_PART
+     * @throws ParseException     for failures parsing the message
+     * @throws MessagingException for other failures
+     * @throws NoSuchElementException if there are no more events
+     */
+    public int next() throws MessagingException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        if (body != null) {
+            body.valid = false;
+            body = null;
+        }
+        try {
+            switch (event) {
+            case 0:
+                return startPart(null, in);
+            case START_PART:
+                return startContent();
+            case BODY:
+                return endPart();
+            default:    // END_PART
+                current = current.parent;
+                if (current.parts != null)
+                    return nextPart();
+                return endPart();    // the end of a message/rfc822 part
+            }
+        } catch (IOException ex) {
+            throw new MessagingException("IO Error", ex);
+        }
+    }
+
+    /**
+     * Return the current event.
+     *
+     * @return the event, or 0 before the first call to next
+     */
+    public int getEventType() {
+        return event;
+    }
+
+    /**
+     * Return the depth of the current part.  The message itself
+     * is at depth zero, its body parts are at depth one, and so on.
+     * A message enclosed in a message/rfc822 part is one deeper than
+     * the part.
+     *
+     * @return the depth
+     */
+    public int getDepth() {
+        checkStarted();
+        int depth = 0;
+        for (Part p = current.parent; p != null; p = p.parent)
+            depth++;
+        return depth;
+    }
+
+    /**
+     * Return the headers of the current part.
+     *
+     * @return the headers
+     */
+    public InternetHeaders getHeaders() {
+        checkStarted();
+        return current.headers;
+    }
+
+    /**
+     * Return the content type of the current part, from its
+     * Content-Type header, or the default if there's none.
+     *
+     * @return the content type
+     */
+    public String getContentType() {
+        checkStarted();
+        return current.contentType;
+    }
+
+    /**
+     * Return the content of the current part, decoded according to
+     * its Content-Transfer-Encoding header.  Only valid for the BODY
+     * event, and only until the next call to {@link #next next}.
+     *
+     * @return the decoded content
+     * @throws IllegalStateException if the current event isn't BODY
+     * @throws MessagingException for unknown encodings
+     */
+    public InputStream getInputStream() throws MessagingException {
+        return decode(getRawInputStream());
+    }
+
+    /**
+     * Return the content of the current part, without decoding it.
+     * Only valid for the BODY event, and only until the next call to
+     * {@link #next next}.
+     *
+     * @return the content
+     * @throws IllegalStateException if the current event isn't BODY
+     */
+    public InputStream getRawInputStream() {
+        if (event != BODY)
+            throw new IllegalStateException("not at BODY event");
+        if (body == null)
+            body = new BodyInputStream(current.data);
+        return body;
+    }
+
+    /**
+     * Close the input stream.
+     *
+     * @throws IOException for I/O errors closing the stream
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void checkStarted() {
+        if (event == 0)
+            throw new IllegalStateException("next not called");
+    }
+
+    /**
+     * Read the headers of a part from the stream, which continues
+     * with the content of the part.
+     */
+    private int startPart(Part parent, InputStream is)
+            throws MessagingException {
+        InternetHeaders headers = new InternetHeaders(is, allowutf8);
+        String type = headers.getHeader("Content-Type", null);
+        if (type == null) {
+            // the parts of a multipart/digest are messages by default
+            type = "text/plain";
+            if (parent != null && parent.parts != null) {
+                ContentType pct = new ContentType(parent.contentType);
+                if (pct.match("multipart/digest"))
+                    type = "message/rfc822";
+            }
+        }
+        current = new Part(parent, is, headers, type);
+        return event = START_PART;
+    }
+
+    /**
+     * Start on the content of the current part.
+     */
+    private int startContent() throws IOException, MessagingException {
+        ContentType ct;
+        try {
+            ct = new ContentType(current.contentType);
+        } catch (ParseException pex) {
+            // treat it as any other part
+            return event = BODY;
+        }
+        String boundary = ct.getParameter("boundary");
+        if (ct.match("multipart/*") && boundary != null) {
+            current.parts = new MimeBoundaryInputStream(current.data,
+                    boundary);
+            return nextPart();    // skips the preamble
+        }
+        if (ct.match("message/rfc822")) {
+            InputStream is = decode(current.data);
+            if (!is.markSupported())    // for reading the headers
+                is = new BufferedInputStream(is);
+            return startPart(current, is);
+        }
+        return event = BODY;
+    }
+
+    /**
+     * Start the next body part of the current multipart,
+     * or end the multipart if there are no more.
+     */
+    private int nextPart() throws IOException, MessagingException {
+        if (current.parts.nextPart())
+            return startPart(current, current.parts);
+        return endPart();
+    }
+
+    /**
+     * End the current part, skipping any remaining content.
+     */
+    private int endPart() throws IOException {
+        byte[] b = new byte[4096];
+        InputStream is = current.data;
+        while (is.read(b) >= 0)
+            ;
+        return event = END_PART;
+    }
+
+    /**
+     * Decode the content of the current part.
+     */
+    private InputStream decode(InputStream is) throws MessagingException {
+        String encoding = MimeBodyPart.getEncoding(
+                current.headers.getHeader("Content-Transfer-Encoding", null));
+        if (encoding == null)
+            return is;
+        return MimeUtility.decode(is, encoding);
+    }
+
+    /**
+     * The content of a BODY, which can't be read after the
+     * parser has advanced past the BODY event.
+     */
+    private static final class BodyInputStream extends FilterInputStream {
+        boolean valid = true;
+
+        BodyInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return valid ? in.read() : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return valid ? in.read(b, off, len) : -1;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return valid ? in.skip(n) : 0;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return valid ? in.available() : 0;
+        }
+
+        @Override
+        public void close() {
+            // the parser owns the stream
+        }
+    }
+}
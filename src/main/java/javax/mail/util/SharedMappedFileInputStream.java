@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2021 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+
+package javax.mail.util;
+
+import javax.mail.internet.SharedInputStream;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A <code>SharedMappedFileInputStream</code> is an
+ * <code>InputStream</code> that reads data from a file mapped
+ * into memory, and supports the <code>mark</code> and
+ * <code>reset</code> methods.  It also supports the
+ * <code>newStream</code> method that allows you to create
+ * other streams that represent subsets of the file. <p>
+ *
+ * Unlike {@link SharedFileInputStream}, the streams created with
+ * the <code>newStream</code> method don't share a file pointer,
+ * or a lock, and don't copy the data into a buffer of their own,
+ * so many threads can read different parts of the same file
+ * concurrently.  Files larger than 2GB are mapped in several
+ * pieces. <p>
+ *
+ * The file is closed once it has been mapped.  As with
+ * SharedFileInputStream, when the SharedMappedFileInputStream
+ * is closed, all streams created with the <code>newStream</code>
+ * method are also closed.  Note that the memory the file is mapped
+ * into is only released when all the streams have been garbage
+ * collected.
+ *
+ * @since JavaMail 1.6.7
+ */
+public class SharedMappedFileInputStream extends InputStream
+        implements SharedInputStream {
+
+    private static final int SEGMENT_SHIFT = 30;    // map 1GB at a time
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    /**
+     * The mapped file, shared by all related streams.
+     */
+    private final MappedFile mf;
+
+    /**
+     * Our own views of the mapped segments, created as needed.
+     */
+    private final ByteBuffer[] views;
+
+    private final long start;    // file offset of the start of our data
+    private final long end;      // file offset of the end of our data
+    private long pos;            // file offset of the next byte to read
+    private long markpos = -1;
+    private boolean closed;
+    private final boolean master;
+
+    /**
+     * Creates a <code>SharedMappedFileInputStream</code>
+     * for the file.
+     *
+     * @param file the file
+     * @throws IOException for errors opening or mapping the file
+     */
+    public SharedMappedFileInputStream(File file) throws IOException {
+        this(new MappedFile(file), 0, -1, true);
+    }
+
+    /**
+     * Creates a <code>SharedMappedFileInputStream</code>
+     * for the named file.
+     *
+     * @param file the file
+     * @throws IOException for errors opening or mapping the file
+     */
+    public SharedMappedFileInputStream(String file) throws IOException {
+        this(new File(file));
+    }
+
+    /**
+     * Used internally by the <code>newStream</code> method.
+     */
+    private SharedMappedFileInputStream(MappedFile mf, long start, long end,
+                                        boolean master) {
+        this.mf = mf;
+        this.views = new ByteBuffer[mf.segments.length];
+        this.start = Math.min(start, mf.length);
+        this.end = end == -1 ? mf.length : Math.min(end, mf.length);
+        this.pos = this.start;
+        this.master = master;
+    }
+
+    /**
+     * Check to make sure that this stream has not been closed.
+     */
+    private void ensureOpen() throws IOException {
+        if (closed || mf.closed)
+            throw new IOException("Stream closed");
+    }
+
+    /**
+     * Return our view of the segment, positioned at the file offset.
+     */
+    private ByteBuffer view(long off) {
+        int seg = (int) (off >>> SEGMENT_SHIFT);
+        ByteBuffer bb = views[seg];
+        if (bb == null)
+            bb = views[seg] = mf.segments[seg].duplicate();
+        bb.position((int) (off & SEGMENT_MASK));
+        return bb;
+    }
+
+    /**
+     * See the general contract of the <code>read</code>
+     * method of <code>InputStream</code>.
+     *
+     * @return the next byte of data, or <code>-1</code> if the end of the
+     * stream is reached.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized int read() throws IOException {
+        ensureOpen();
+        if (pos >= end)
+            return -1;
+        int b = mf.segments[(int) (pos >>> SEGMENT_SHIFT)]
+                .get((int) (pos & SEGMENT_MASK)) & 0xff;
+        pos++;
+        return b;
+    }
+
+    /**
+     * Reads bytes from this stream into the specified byte array,
+     * starting at the given offset.
+     *
+     * @param b   destination buffer.
+     * @param off offset at which to start storing bytes.
+     * @param len maximum number of bytes to read.
+     * @return the number of bytes read, or <code>-1</code> if the end of
+     * the stream has been reached.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized int read(byte[] b, int off, int len)
+            throws IOException {
+        ensureOpen();
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (pos >= end)
+            return -1;
+        int n = 0;
+        while (n < len && pos < end) {
+            // read no further than the end of the segment
+            int cnt = (int) Math.min(Math.min(len - n, end - pos),
+                    (SEGMENT_MASK + 1) - (pos & SEGMENT_MASK));
+            view(pos).get(b, off + n, cnt);
+            pos += cnt;
+            n += cnt;
+        }
+        return n;
+    }
+
+    /**
+     * See the general contract of the <code>skip</code>
+     * method of <code>InputStream</code>.
+     *
+     * @param n the number of bytes to be skipped.
+     * @return the actual number of bytes skipped.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0)
+            return 0;
+        long skipped = Math.min(n, end - pos);
+        pos += skipped;
+        return skipped;
+    }
+
+    /**
+     * Returns the number of bytes that can be read from this input
+     * stream without blocking.
+     *
+     * @return the number of bytes that can be read from this input
+     * stream without blocking.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized int available() throws IOException {
+        ensureOpen();
+        return (int) Math.min(end - pos, Integer.MAX_VALUE);
+    }
+
+    /**
+     * See the general contract of the <code>mark</code>
+     * method of <code>InputStream</code>.  Since all the
+     * data is available, the readlimit is ignored.
+     *
+     * @param readlimit the maximum limit of bytes that can be read before
+     *                  the mark position becomes invalid.
+     * @see #reset()
+     */
+    @Override
+    public synchronized void mark(int readlimit) {
+        markpos = pos;
+    }
+
+    /**
+     * See the general contract of the <code>reset</code>
+     * method of <code>InputStream</code>.
+     *
+     * @throws IOException if this stream has never been marked
+     * @see #mark(int)
+     */
+    @Override
+    public synchronized void reset() throws IOException {
+        ensureOpen();
+        if (markpos < 0)
+            throw new IOException("Resetting to invalid mark");
+        pos = markpos;
+    }
+
+    /**
+     * Tests if this input stream supports the <code>mark</code>
+     * and <code>reset</code> methods, which it does.
+     *
+     * @return <code>true</code>
+     * @see java.io.InputStream#mark(int)
+     * @see java.io.InputStream#reset()
+     */
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /**
+     * Closes this input stream.  Closing the stream created
+     * by the constructor closes all the streams created with
+     * the <code>newStream</code> method.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (master)
+            mf.closed = true;
+    }
+
+    /**
+     * Return the current position in the InputStream, as an
+     * offset from the beginning of the InputStream.
+     *
+     * @return the current position
+     */
+    @Override
+    public synchronized long getPosition() {
+        return pos - start;
+    }
+
+    /**
+     * Return a new InputStream representing a subset of the data
+     * from this InputStream, starting at <code>start</code> (inclusive)
+     * up to <code>end</code> (exclusive).  <code>start</code> must be
+     * non-negative.  If <code>end</code> is -1, the new stream ends
+     * at the same place as this stream.  The returned InputStream
+     * will also implement the SharedInputStream interface.
+     *
+     * @param start the starting position
+     * @param end   the ending position + 1
+     * @return the new stream
+     */
+    @Override
+    public InputStream newStream(long start, long end) {
+        if (mf.closed)
+            throw new RuntimeException("Stream closed");
+        if (start < 0)
+            throw new IllegalArgumentException("start < 0");
+        return new SharedMappedFileInputStream(mf, this.start + start,
+                end == -1 ? this.end : this.start + end, false);
+    }
+
+    /**
+     * The segments of a file mapped into memory, shared by
+     * all related SharedMappedFileInputStreams.
+     */
+    private static final class MappedFile {
+        final ByteBuffer[] segments;
+        final long length;
+        volatile boolean closed;
+
+        MappedFile(File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileChannel fc = raf.getChannel();
+                length = fc.size();
+                int n = (int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+                segments = new ByteBuffer[n];
+                for (int i = 0; i < n; i++) {
+                    long off = (long) i << SEGMENT_SHIFT;
+                    segments[i] = fc.map(FileChannel.MapMode.READ_ONLY, off,
+                            Math.min(length - off, SEGMENT_MASK + 1));
+                }
+            }
+        }
+    }
+}